@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 守护进程的客户端：把命令发送给当前仓库的守护进程并输出结果，退出码与直接执行命令相同
+ * 只加载套接字相关的类：套接字路径在这里直接计算，不经过 Repository，避免触发仓库相关类的初始化
+ *
+ * 用法：java gitlet.Client <命令> <参数> ...
+ */
+public class Client {
+    /** 守护进程监听的套接字，与 Repository.GITLET_DIR 下的 daemon.sock 相同 */
+    static final File SOCKET_FILE = new File(new File(
+            System.getProperty("gitlet.cwd", System.getProperty("user.dir")), ".gitlet"), "daemon.sock");
+
+    public static void main(String[] args) {
+        System.exit(send(args));
+    }
+
+    /**
+     * 把 ARGS 发送给守护进程，把输出写到标准输出
+     * @return 命令的退出码
+     */
+    static int send(String[] args) {
+        try (SocketChannel channel = connect()) {
+            OutputStream out = Channels.newOutputStream(channel);
+            for (String arg : args) {
+                out.write(arg.getBytes(StandardCharsets.UTF_8));
+                out.write(0);
+            }
+            channel.shutdownOutput();
+
+            // 输出按帧返回，长度为 0 的帧之后是退出码
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            byte[] frame = new byte[1 << 16];
+            int length;
+            while ((length = in.readInt()) > 0) {
+                if (length > frame.length) {
+                    frame = new byte[length];
+                }
+                in.readFully(frame, 0, length);
+                System.out.write(frame, 0, length);
+            }
+            System.out.flush();
+            return in.readInt();
+        } catch (EOFException e) {
+            System.out.flush();
+            System.out.println("守护进程意外断开连接");
+            return 1;
+        } catch (IOException e) {
+            System.out.println("无法连接守护进程，请先执行 gitlet daemon");
+            return 1;
+        }
+    }
+
+    /**
+     * 当前仓库的守护进程是否在运行
+     */
+    static boolean isRunning() {
+        SocketChannel channel;
+        try {
+            channel = connect();
+        } catch (IOException e) {
+            return false;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 只是探测连接，关闭失败不影响结果
+        }
+        return true;
+    }
+
+    private static SocketChannel connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            channel.connect(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+}
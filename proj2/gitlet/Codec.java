@@ -0,0 +1,200 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * 提交、树和索引使用的紧凑二进制编码
+ *
+ * 每种数据以一个类型字节和一个版本字节开头，其后的字段依次排列：
+ * 整数使用变长编码（每个字节保存 7 位，最高位表示后面还有字节），字符串为长度加 UTF-8 内容，
+ * 对象ID 以 20 字节的二进制保存；排好序的路径表使用前缀压缩，每个路径只保存与前一个路径相同的前缀长度和剩余部分
+ * Java 序列化的数据总以 0xAC 开头，不会与类型字节冲突，读取时据此区分新旧格式
+ */
+class Codec {
+    /** Java 序列化数据的第一个字节 */
+    static final int SERIALIZED_MAGIC = 0xAC;
+
+    private static final int RAW_ID_LENGTH = UID_LENGTH / 2;
+
+    /**
+     * 数据是否是 Java 序列化的旧格式
+     */
+    static boolean isSerialized(byte[] data) {
+        return data.length > 0 && (data[0] & 0xff) == SERIALIZED_MAGIC;
+    }
+
+    /**
+     * 写入缓冲区，容量不足时自动扩大
+     */
+    static class Output {
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        Output(int type, int version) {
+            writeByte(type);
+            writeByte(version);
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        /**
+         * 有符号整数先做 zigzag 变换，绝对值小的负数也只占很少的字节
+         */
+        void writeSignedVarLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        void writeId(String id) {
+            ensure(RAW_ID_LENGTH);
+            for (int i = 0; i < RAW_ID_LENGTH; i++) {
+                bytes[size++] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                        | Character.digit(id.charAt(2 * i + 1), 16));
+            }
+        }
+
+        /**
+         * 写入排好序的路径表
+         */
+        void writePaths(List<String> paths) {
+            writeVarLong(paths.size());
+            String previous = "";
+            for (String path : paths) {
+                int common = 0;
+                int limit = Math.min(previous.length(), path.length());
+                while (common < limit && previous.charAt(common) == path.charAt(common)) {
+                    common++;
+                }
+                // 不在代理对中间截断，保证后缀是合法的字符串
+                if (common > 0 && Character.isHighSurrogate(path.charAt(common - 1))) {
+                    common--;
+                }
+                writeVarLong(common);
+                writeString(path.substring(common));
+                previous = path;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * 从字节数组中按顺序读取字段，数据不完整时抛出 IllegalArgumentException
+     */
+    static class Input {
+        private final byte[] bytes;
+        private int position;
+
+        /**
+         * @param type 期望的类型字节
+         * @param maxVersion 支持的最高版本
+         */
+        Input(byte[] bytes, int type, int maxVersion) {
+            this.bytes = bytes;
+            if (bytes.length < 2 || bytes[0] != type) {
+                throw new IllegalArgumentException("对象类型不符");
+            }
+            int version = bytes[1];
+            if (version < 1 || version > maxVersion) {
+                throw new IllegalArgumentException("不支持的格式版本: " + version);
+            }
+            position = 2;
+        }
+
+        int readByte() {
+            check(1);
+            return bytes[position++] & 0xff;
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("数据已损坏");
+        }
+
+        long readSignedVarLong() {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        int readVarInt() {
+            long value = readVarLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("数据已损坏");
+            }
+            return (int) value;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            check(length);
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String readId() {
+            check(RAW_ID_LENGTH);
+            String id = toHex(bytes, position, RAW_ID_LENGTH);
+            position += RAW_ID_LENGTH;
+            return id;
+        }
+
+        String[] readPaths() {
+            String[] paths = new String[readVarInt()];
+            String previous = "";
+            for (int i = 0; i < paths.length; i++) {
+                int common = readVarInt();
+                if (common > previous.length()) {
+                    throw new IllegalArgumentException("数据已损坏");
+                }
+                paths[i] = previous.substring(0, common) + readString();
+                previous = paths[i];
+            }
+            return paths;
+        }
+
+        private void check(int length) {
+            if (length < 0 || position + length > bytes.length) {
+                throw new IllegalArgumentException("数据已损坏");
+            }
+        }
+    }
+}
@@ -3,10 +3,13 @@ package gitlet;
 // TODO: any imports you need here
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date; // TODO: You'll likely use this in this class
-import java.util.HashMap;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 /** Represents a gitlet commit object.
  *  TODO: It's a good idea to give a description here of what else this Class
@@ -15,6 +18,9 @@ import java.util.Map;
  *  @author 逐辰
  */
 public class Commit implements Serializable {
+    // 与旧版本保持一致，使旧仓库中的提交仍可反序列化
+    private static final long serialVersionUID = 8506063221514254960L;
+
     /**
      * TODO: add instance variables here.
      *
@@ -26,34 +32,139 @@ public class Commit implements Serializable {
     private String parent2ID;       // 第二个父提交的哈希（用于合并提交）
     private Date timestamp;        // 提交时间戳
     private String message;        // 提交信息
-    private Map<String, String> fileToBlobID; // 文件名 → Blob哈希的映射
+    private Map<String, String> fileToBlobID; // 文件名 → Blob哈希的映射，仅旧版本的提交有，新提交为 null
+    private String treeID;         // 根目录树的哈希
     private String id;             // 基于内容生成的SHA-1哈希
+    private transient SortedMap<String, String> files; // 按路径排序的文件映射，首次使用时从树展开
+
+    /** 二进制编码的类型字节和版本，见 Codec */
+    static final int CODEC_TYPE = 'c';
+    private static final int CODEC_VERSION = 1;
+
+    private static final int HAS_PARENT1 = 1;
+    private static final int HAS_PARENT2 = 2;
+    private static final int HAS_TREE = 4;
+    private static final int HAS_FILES = 8;
 
     // 普通提交的构造函数
-    public Commit(String parent1ID, String message, Map<String, String> fileToBlobID) {
-        this(parent1ID, null, new Date(), message, fileToBlobID);
+    public Commit(String parent1ID, String message, String treeID) {
+        this(parent1ID, null, new Date(), message, treeID);
     }
     // 合并提交的构造函数
-    public Commit(String parent1ID, String parent2ID, Date timestamp,String message, Map<String, String> fileToBlobID) {
+    public Commit(String parent1ID, String parent2ID, Date timestamp, String message, String treeID) {
         this.parent1ID = parent1ID;
         this.parent2ID = parent2ID;
         this.timestamp = timestamp;
         this.message = message;
-        this.fileToBlobID = new HashMap<>(fileToBlobID);
+        this.treeID = treeID;
         this.id = generateID(); // 生成唯一ID
     }
 
+    private Commit() {
+    }
+
     private String generateID() {
-        // 序列化元数据、父提交、文件映射等内容，计算SHA-1哈希
-        return Utils.sha1(parent1ID + parent2ID + timestamp.toString() + message + fileToBlobID.toString());
+        // 元数据、父提交和根目录树的哈希共同决定提交的哈希
+        // 逐个字段送入摘要，结果与对拼接后的字符串（null 字段记为 "null"）求哈希相同
+        MessageDigest md = Utils.sha1Digest();
+        for (String field : new String[]{parent1ID, parent2ID, timestamp.toString(), message, treeID}) {
+            md.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+        }
+        return Utils.toHex(md.digest());
+    }
+
+    /**
+     * 编码为对象库中保存的二进制格式：标志位、父提交、时间戳、提交信息、根目录树，
+     * 旧版本的提交还有按路径排序的文件映射
+     */
+    byte[] encode() {
+        Codec.Output out = new Codec.Output(CODEC_TYPE, CODEC_VERSION);
+        int flags = (parent1ID != null ? HAS_PARENT1 : 0) | (parent2ID != null ? HAS_PARENT2 : 0)
+                | (treeID != null ? HAS_TREE : 0) | (fileToBlobID != null ? HAS_FILES : 0);
+        out.writeByte(flags);
+        if (parent1ID != null) {
+            out.writeId(parent1ID);
+        }
+        if (parent2ID != null) {
+            out.writeId(parent2ID);
+        }
+        out.writeSignedVarLong(timestamp.getTime());
+        out.writeString(message);
+        if (treeID != null) {
+            out.writeId(treeID);
+        }
+        if (fileToBlobID != null) {
+            TreeMap<String, String> sorted = new TreeMap<>(fileToBlobID);
+            out.writePaths(new ArrayList<>(sorted.keySet()));
+            for (String blobID : sorted.values()) {
+                out.writeId(blobID);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 从二进制格式还原提交，提交的哈希就是对象ID，不需要重新计算
+     * @throws IllegalArgumentException 数据不是提交或已损坏
+     */
+    static Commit decode(String id, byte[] data) {
+        Codec.Input in = new Codec.Input(data, CODEC_TYPE, CODEC_VERSION);
+        Commit commit = new Commit();
+        int flags = in.readByte();
+        if ((flags & HAS_PARENT1) != 0) {
+            commit.parent1ID = in.readId();
+        }
+        if ((flags & HAS_PARENT2) != 0) {
+            commit.parent2ID = in.readId();
+        }
+        commit.timestamp = new Date(in.readSignedVarLong());
+        commit.message = in.readString();
+        if ((flags & HAS_TREE) != 0) {
+            commit.treeID = in.readId();
+        }
+        if ((flags & HAS_FILES) != 0) {
+            String[] paths = in.readPaths();
+            commit.fileToBlobID = new TreeMap<>();
+            for (String path : paths) {
+                commit.fileToBlobID.put(path, in.readId());
+            }
+        }
+        commit.id = id;
+        return commit;
     }
 
     public String getId() {
         return id;
     }
 
-    public Map<String, String> getFileToBlobID() {
-        return fileToBlobID;
+    /**
+     * 根目录树的哈希；旧版本的提交没有树，首次调用时根据文件映射生成
+     * 树对象不存在时需要写入对象库，只读命令会先升级为独占锁
+     */
+    public String getTreeID() {
+        if (treeID == null) {
+            String id = Tree.idOf(fileToBlobID);
+            // 根目录树总是最后写入，它存在时所有子目录的树也都已存在
+            if (!ObjectStore.contains(id)) {
+                RepositoryLock.upgrade();
+                if (!ObjectStore.contains(id)) {
+                    Tree.update(null, fileToBlobID);
+                }
+            }
+            treeID = id;
+        }
+        return treeID;
+    }
+
+    /**
+     * 按路径排序的 文件名 → Blob哈希 映射，从根目录树展开，只在首次调用时读取树对象
+     * 同一目录下的文件在映射中是连续的，可以用 subMap 取出
+     */
+    public SortedMap<String, String> getFileToBlobID() {
+        if (files == null) {
+            files = fileToBlobID != null ? new TreeMap<>(fileToBlobID) : Tree.flatten(treeID);
+        }
+        return files;
     }
 
     public String getMessage() {
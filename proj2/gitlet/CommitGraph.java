@@ -0,0 +1,575 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * 提交图索引，记录每个提交的 ID、父提交、时间戳、代数（generation number）和提交信息位置
+ *
+ * 图文件 commit-graph 由定长记录组成，只追加不改写，新的提交在 commit/merge 时追加一条记录；
+ * 提交信息单独追加到 commit-messages 中，记录里只保存偏移量和长度
+ * 追加通过事务进行，命令中途崩溃时会被回滚；没有事务保护时中断留下的不完整记录在下一次追加前被截掉
+ * log、global-log、find 和寻找分割点时只需读取这两个文件，不必反序列化每个提交对象
+ *
+ * 两个文件都通过内存映射读取，只解码用到的记录；按ID查找记录时使用查找表 commit-graph-lookup：
+ * 文件头（魔数、覆盖的记录数 N、第 N 条记录的ID）、与 packfile 索引相同的 fan-out 表、按ID排序的 (ID, 记录序号)
+ * 查找表只覆盖前 N 条记录，之后追加的记录在打开图文件时放进内存中的 ID → 序号 映射；
+ * 未覆盖的记录超过 max(MIN_UNINDEXED, N / 4) 时重建查找表，与提交信息索引的策略相同
+ *
+ * 代数：初始提交为 1，其余提交为所有父提交代数的最大值 + 1
+ */
+class CommitGraph {
+    static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+    static final File MESSAGE_FILE = join(Repository.GITLET_DIR, "commit-messages");
+    static final File LOOKUP_FILE = join(Repository.GITLET_DIR, "commit-graph-lookup");
+
+    /** 对象ID的二进制长度 */
+    private static final int RAW_ID_LENGTH = UID_LENGTH / 2;
+    /** 每条记录的长度：ID、两个父提交、标志位、时间戳、代数、信息偏移量、信息长度 */
+    private static final int RECORD_SIZE = RAW_ID_LENGTH * 3 + 1 + 8 + 4 + 8 + 4;
+    private static final byte HAS_PARENT1 = 1;
+    private static final byte HAS_PARENT2 = 2;
+
+    private static final int LOOKUP_MAGIC = 0x47434c31; // "GCL1"
+    /** 查找表文件头：魔数、覆盖的记录数、最后一条被覆盖的记录的ID */
+    private static final int LOOKUP_HEADER_SIZE = 4 + 4 + RAW_ID_LENGTH;
+    /** 查找表中按ID首字节划分的累计计数表 */
+    private static final int FANOUT_SIZE = 256 * 4;
+    /** 查找表中每条记录的长度：ID + 记录序号 */
+    private static final int LOOKUP_ENTRY_SIZE = RAW_ID_LENGTH + 4;
+    /** 未被查找表覆盖的记录不超过这个数量时不重建查找表 */
+    private static final int MIN_UNINDEXED = 64;
+
+    /**
+     * 图中的一个提交
+     */
+    static class Node {
+        private final String id;
+        private final String parent1ID;
+        private final String parent2ID;
+        private final long timestamp;
+        private final int generation;
+        private final long messageOffset;
+        private final int messageLength;
+
+        Node(String id, String parent1ID, String parent2ID, long timestamp,
+             int generation, long messageOffset, int messageLength) {
+            this.id = id;
+            this.parent1ID = parent1ID;
+            this.parent2ID = parent2ID;
+            this.timestamp = timestamp;
+            this.generation = generation;
+            this.messageOffset = messageOffset;
+            this.messageLength = messageLength;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getParent1ID() {
+            return parent1ID;
+        }
+
+        String getParent2ID() {
+            return parent2ID;
+        }
+
+        long getTimestamp() {
+            return timestamp;
+        }
+
+        int getGeneration() {
+            return generation;
+        }
+    }
+
+    /** 映射的图文件，只包含完整的记录；为 null 时表示尚未打开 */
+    private static ByteBuffer graph;
+    /** 图中完整记录的数量 */
+    private static int count;
+    /** 打开时图文件的长度，用于判断文件是否被其他进程修改过 */
+    private static long loadedLength;
+    /** 已解码的记录，按序号缓存 */
+    private static Node[] decoded;
+    /** 映射的查找表，不存在或与图不一致时为 null */
+    private static ByteBuffer lookup;
+    /** 查找表覆盖的记录数 */
+    private static int lookupCount;
+    /** 查找表没有覆盖的记录：ID → 序号，打开时建立，追加时补充 */
+    private static Map<String, Integer> unindexed;
+    /** 映射的提交信息文件，首次读取提交信息时映射 */
+    private static ByteBuffer messages;
+
+    /**
+     * 为新仓库创建空的提交图
+     */
+    static void create() {
+        writeContents(GRAPH_FILE, new byte[0]);
+        writeContents(MESSAGE_FILE, new byte[0]);
+        close();
+    }
+
+    /**
+     * 提交图文件在打开之后被其他进程追加或重建过时关闭它，下次使用时重新映射
+     */
+    static void refresh() {
+        if (graph != null && GRAPH_FILE.length() != loadedLength) {
+            close();
+        }
+    }
+
+    /**
+     * 根据ID获取提交，不存在时返回 null
+     */
+    static Node get(String id) {
+        open();
+        if (id == null || id.length() != UID_LENGTH) {
+            return null;
+        }
+        int ordinal = find(id);
+        return ordinal < 0 ? null : at(ordinal);
+    }
+
+    /**
+     * 图中的提交数量
+     */
+    static int size() {
+        open();
+        return count;
+    }
+
+    /**
+     * 第 ORDINAL 条记录对应的提交，序号从 0 开始
+     */
+    static Node at(int ordinal) {
+        open();
+        Node node = decoded[ordinal];
+        if (node == null) {
+            node = getRecord(graph.duplicate().position(ordinal * RECORD_SIZE));
+            decoded[ordinal] = node;
+        }
+        return node;
+    }
+
+    /**
+     * 所有提交，父提交总在子提交之前
+     */
+    static List<Node> all() {
+        open();
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(at(i));
+        }
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * 寻找两个提交的最近公共祖先（分割点）
+     *
+     * 两侧同时出发，用按代数从大到小排列的优先队列向下“染色”：从 a 可达的提交标记 FROM_A，
+     * 从 b 可达的提交标记 FROM_B。一个提交的所有子孙代数都比它大，因此出队时它已经收到了
+     * 所有路径上的标记；第一个同时带有两种标记的提交就是代数最大的公共祖先，此时立即返回，
+     * 只会访问两个分支分叉之后的那部分历史，也只解码这部分记录
+     * @return 公共祖先的ID，没有公共祖先时返回 null
+     */
+    static String mergeBase(String a, String b) {
+        if (a.equals(b)) {
+            return a;
+        }
+        if (get(a) == null || get(b) == null) {
+            // 提交图与对象库不一致（如图文件被截断过），从对象库重建
+            rebuild();
+            for (String id : new String[] {a, b}) {
+                if (get(id) == null) {
+                    throw error("提交图中找不到提交 %s", id);
+                }
+            }
+        }
+        final byte fromA = 1;
+        final byte fromB = 2;
+        Map<String, Byte> flags = new HashMap<>();
+        PriorityQueue<Node> queue = new PriorityQueue<>(NEWEST_FIRST);
+        flags.put(a, fromA);
+        flags.put(b, fromB);
+        queue.add(get(a));
+        queue.add(get(b));
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            byte mark = flags.get(node.id);
+            if (mark == (fromA | fromB)) {
+                return node.id;
+            }
+            for (String parentId : new String[] {node.parent1ID, node.parent2ID}) {
+                Node parent = get(parentId);
+                if (parent == null) {
+                    continue;
+                }
+                Byte parentMark = flags.get(parentId);
+                if (parentMark == null) {
+                    flags.put(parentId, mark);
+                    queue.add(parent);
+                } else if ((parentMark | mark) != parentMark) {
+                    // 已在队列中，补上新的标记即可
+                    flags.put(parentId, (byte) (parentMark | mark));
+                }
+            }
+        }
+        return null;
+    }
+
+    /** 代数大的在前，代数相同时按时间戳、ID排列，保证结果确定 */
+    private static final Comparator<Node> NEWEST_FIRST = (x, y) -> {
+        if (x.generation != y.generation) {
+            return Integer.compare(y.generation, x.generation);
+        }
+        if (x.timestamp != y.timestamp) {
+            return Long.compare(y.timestamp, x.timestamp);
+        }
+        return x.id.compareTo(y.id);
+    };
+
+    /**
+     * 读取提交信息
+     */
+    static String message(Node node) {
+        long end = node.messageOffset + node.messageLength;
+        if (messages == null || end > messages.capacity()) {
+            // 文件在映射之后又追加过
+            messages = map(MESSAGE_FILE, MESSAGE_FILE.length());
+            if (end > messages.capacity()) {
+                throw error("提交信息文件已损坏");
+            }
+        }
+        byte[] bytes = new byte[node.messageLength];
+        messages.get((int) node.messageOffset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 将新提交追加到提交图，已存在的提交会被跳过
+     */
+    static void add(Commit commit) {
+        if (get(commit.getId()) != null) {
+            return;
+        }
+        append(Collections.singletonList(commit));
+    }
+
+    /**
+     * 追加一批提交，调用方需保证父提交已在图中或排在子提交之前
+     */
+    private static void append(List<Commit> commits) {
+        open();
+        ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * commits.size());
+        ByteArrayOutputStream messageBytes = new ByteArrayOutputStream();
+        // 丢掉末尾不完整的记录，以及最后一条完整记录之后没有被引用的提交信息
+        long graphLength = (long) count * RECORD_SIZE;
+        long messageBase = count == 0 ? 0 : at(count - 1).messageOffset + at(count - 1).messageLength;
+        // 本批次中提交的代数，父提交可能也在本批次中
+        Map<String, Integer> generations = new HashMap<>();
+        for (Commit commit : commits) {
+            byte[] message = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+            Node node = new Node(commit.getId(), commit.getParent1ID(), commit.getParent2ID(),
+                    commit.getTimestamp().getTime(), generationOf(commit, generations),
+                    messageBase + messageBytes.size(), message.length);
+            messageBytes.writeBytes(message);
+            putRecord(records, node);
+            generations.put(node.id, node.generation);
+        }
+        // 先写提交信息再写记录，记录引用的信息总是已经存在
+        Transaction.append(MESSAGE_FILE, messageBase, messageBytes.toByteArray());
+        Transaction.append(GRAPH_FILE, graphLength, records.array());
+        extend();
+        if (count - lookupCount > Math.max(MIN_UNINDEXED, lookupCount / 4)) {
+            writeLookup();
+        }
+        MessageIndex.update();
+    }
+
+    private static int generationOf(Commit commit, Map<String, Integer> generations) {
+        int generation = 0;
+        for (String parent : new String[] {commit.getParent1ID(), commit.getParent2ID()}) {
+            Integer pending = parent == null ? null : generations.get(parent);
+            Node node = pending == null ? get(parent) : null;
+            if (pending != null) {
+                generation = Math.max(generation, pending);
+            } else if (node != null) {
+                generation = Math.max(generation, node.generation);
+            }
+        }
+        return generation + 1;
+    }
+
+    /**
+     * 映射图文件和查找表，没有图文件的旧仓库会先从对象库中重建
+     */
+    private static void open() {
+        if (graph != null) {
+            return;
+        }
+        if (!GRAPH_FILE.isFile()) {
+            // 只读命令会先升级为独占锁，升级期间其他进程可能已经重建了提交图
+            if (!RepositoryLock.upgrade() || !GRAPH_FILE.isFile()) {
+                rebuild();
+                return;
+            }
+        }
+        loadedLength = GRAPH_FILE.length();
+        // 末尾不完整的记录（写入时中断）直接忽略
+        count = (int) (loadedLength / RECORD_SIZE);
+        graph = map(GRAPH_FILE, (long) count * RECORD_SIZE);
+        decoded = new Node[count];
+        openLookup();
+    }
+
+    /**
+     * 追加记录后重新映射图文件，把新记录加入未被查找表覆盖的映射，已解码的记录保持不变
+     */
+    private static void extend() {
+        int previous = count;
+        loadedLength = GRAPH_FILE.length();
+        count = (int) (loadedLength / RECORD_SIZE);
+        graph = map(GRAPH_FILE, (long) count * RECORD_SIZE);
+        decoded = Arrays.copyOf(decoded, count);
+        for (int i = previous; i < count; i++) {
+            unindexed.put(idAt(i), i);
+        }
+        messages = null;
+    }
+
+    private static void close() {
+        graph = null;
+        count = 0;
+        loadedLength = 0;
+        decoded = null;
+        lookup = null;
+        lookupCount = 0;
+        unindexed = null;
+        messages = null;
+    }
+
+    /**
+     * 映射查找表；文件不存在、格式不对或与图不一致（图被重建过）时不使用查找表
+     */
+    private static void openLookup() {
+        lookup = null;
+        lookupCount = 0;
+        if (LOOKUP_FILE.isFile() && LOOKUP_FILE.length() >= LOOKUP_HEADER_SIZE + FANOUT_SIZE) {
+            ByteBuffer table = map(LOOKUP_FILE, LOOKUP_FILE.length());
+            int covered = table.getInt(4);
+            if (table.getInt(0) == LOOKUP_MAGIC && covered > 0 && covered <= count
+                    && table.capacity() == LOOKUP_HEADER_SIZE + FANOUT_SIZE + (long) covered * LOOKUP_ENTRY_SIZE
+                    && compareRawId(table, 8, graph, (covered - 1) * RECORD_SIZE) == 0) {
+                lookup = table;
+                lookupCount = covered;
+            }
+        }
+        unindexed = new HashMap<>();
+        for (int i = lookupCount; i < count; i++) {
+            unindexed.put(idAt(i), i);
+        }
+    }
+
+    /**
+     * 查找提交的记录序号：先查找表没有覆盖的记录，再在查找表中二分查找
+     * @return 记录序号，不存在时返回 -1
+     */
+    private static int find(String id) {
+        Integer recent = unindexed.get(id);
+        if (recent != null) {
+            return recent;
+        }
+        ByteBuffer target = ByteBuffer.allocate(RAW_ID_LENGTH);
+        putRawId(target, id);
+        if (lookup != null) {
+            int first = target.get(0) & 0xff;
+            int low = first == 0 ? 0 : lookup.getInt(LOOKUP_HEADER_SIZE + (first - 1) * 4);
+            int high = lookup.getInt(LOOKUP_HEADER_SIZE + first * 4) - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int position = LOOKUP_HEADER_SIZE + FANOUT_SIZE + mid * LOOKUP_ENTRY_SIZE;
+                int cmp = compareRawId(lookup, position, target, 0);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return lookup.getInt(position + RAW_ID_LENGTH);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 为图中的所有记录重建查找表，先写临时文件再原子替换
+     */
+    private static void writeLookup() {
+        Integer[] ordinals = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            ordinals[i] = i;
+        }
+        Arrays.sort(ordinals, (x, y) -> compareRawId(graph, x * RECORD_SIZE, graph, y * RECORD_SIZE));
+        ByteBuffer buffer = ByteBuffer.allocate(LOOKUP_HEADER_SIZE + FANOUT_SIZE + count * LOOKUP_ENTRY_SIZE);
+        buffer.putInt(LOOKUP_MAGIC).putInt(count);
+        buffer.put(rawIdAt(count - 1));
+        int[] fanout = new int[256];
+        for (int i = 0; i < count; i++) {
+            fanout[graph.get(i * RECORD_SIZE) & 0xff] += 1;
+        }
+        int total = 0;
+        for (int n : fanout) {
+            total += n;
+            buffer.putInt(total);
+        }
+        for (int ordinal : ordinals) {
+            buffer.put(rawIdAt(ordinal)).putInt(ordinal);
+        }
+        File temp = join(Repository.GITLET_DIR, "commit-graph-lookup.tmp");
+        writeContents(temp, buffer.array());
+        try {
+            Files.move(temp.toPath(), LOOKUP_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("写入提交图查找表失败: %s", e.getMessage());
+        }
+        openLookup();
+    }
+
+    /**
+     * 扫描对象库中的所有提交，按代数从小到大写入新的提交图
+     */
+    private static void rebuild() {
+        // 重写提交图需要独占锁
+        RepositoryLock.upgrade();
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : ObjectStore.allIds()) {
+            try {
+                commits.put(id, ObjectStore.read(id, Commit.class));
+            } catch (IllegalArgumentException e) {
+                // 不是提交对象，跳过
+            }
+        }
+        // 按拓扑序排列：父提交在前，使用显式栈避免长历史导致栈溢出
+        List<Commit> ordered = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String start : new TreeSet<>(commits.keySet())) {
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.peek();
+                if (done.contains(id)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = commits.get(id);
+                boolean ready = true;
+                for (String parent : new String[] {commit.getParent1ID(), commit.getParent2ID()}) {
+                    if (parent != null && commits.containsKey(parent) && !done.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(id);
+                    ordered.add(commit);
+                }
+            }
+        }
+        Transaction.write(MESSAGE_FILE, new byte[0]);
+        Transaction.write(GRAPH_FILE, new byte[0]);
+        close();
+        append(ordered);
+    }
+
+    private static void putRecord(ByteBuffer buffer, Node node) {
+        byte flags = 0;
+        if (node.parent1ID != null) {
+            flags |= HAS_PARENT1;
+        }
+        if (node.parent2ID != null) {
+            flags |= HAS_PARENT2;
+        }
+        putRawId(buffer, node.id);
+        putRawId(buffer, node.parent1ID);
+        putRawId(buffer, node.parent2ID);
+        buffer.put(flags);
+        buffer.putLong(node.timestamp);
+        buffer.putInt(node.generation);
+        buffer.putLong(node.messageOffset);
+        buffer.putInt(node.messageLength);
+    }
+
+    private static Node getRecord(ByteBuffer buffer) {
+        String id = getRawId(buffer);
+        String parent1 = getRawId(buffer);
+        String parent2 = getRawId(buffer);
+        byte flags = buffer.get();
+        return new Node(id,
+                (flags & HAS_PARENT1) != 0 ? parent1 : null,
+                (flags & HAS_PARENT2) != 0 ? parent2 : null,
+                buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+    }
+
+    private static void putRawId(ByteBuffer buffer, String id) {
+        for (int i = 0; i < RAW_ID_LENGTH; i++) {
+            buffer.put(id == null ? 0 : (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16));
+        }
+    }
+
+    /**
+     * 第 ORDINAL 条记录中提交ID的二进制内容
+     */
+    private static ByteBuffer rawIdAt(int ordinal) {
+        int position = ordinal * RECORD_SIZE;
+        return graph.duplicate().position(position).limit(position + RAW_ID_LENGTH);
+    }
+
+    /**
+     * 第 ORDINAL 条记录的提交ID
+     */
+    private static String idAt(int ordinal) {
+        return getRawId(rawIdAt(ordinal));
+    }
+
+    private static int compareRawId(ByteBuffer a, int aPosition, ByteBuffer b, int bPosition) {
+        for (int i = 0; i < RAW_ID_LENGTH; i++) {
+            int cmp = Integer.compare(a.get(aPosition + i) & 0xff, b.get(bPosition + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static String getRawId(ByteBuffer buffer) {
+        StringBuilder id = new StringBuilder(UID_LENGTH);
+        for (int i = 0; i < RAW_ID_LENGTH; i++) {
+            byte b = buffer.get();
+            id.append(Character.forDigit((b >> 4) & 0xf, 16));
+            id.append(Character.forDigit(b & 0xf, 16));
+        }
+        return id.toString();
+    }
+
+    private static MappedByteBuffer map(File file, long length) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } catch (IOException e) {
+            throw error("读取提交图失败: %s", e.getMessage());
+        }
+    }
+}
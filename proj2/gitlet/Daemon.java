@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * 守护进程：在一个常驻的 JVM 中依次执行客户端发来的命令，
+ * 索引、提交图、packfile 和对象缓存在命令之间保持加载状态，省去每个命令启动 JVM 和重新读取仓库的开销
+ *
+ * 守护进程监听 .gitlet/daemon.sock（Unix 域套接字），一次只执行一个命令，命令之间不持有仓库锁，
+ * 其他 gitlet 进程仍然可以同时使用仓库；每个命令开始前会丢弃已被其他进程修改过的缓存
+ *
+ * 协议：客户端发送命令参数，每个参数以 UTF-8 编码并以 \0 结尾，然后关闭写方向；
+ * 守护进程把命令的输出分成若干帧返回，每帧是 4 字节的长度和内容（输出中可能含有 \0），
+ * 最后是长度为 0 的帧和 4 字节的退出码
+ */
+class Daemon {
+    static final File SOCKET_FILE = Client.SOCKET_FILE;
+
+    /**
+     * 命令调用 Utils.exit 时抛出，结束当前命令
+     */
+    static class CommandExit extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        CommandExit(int status) {
+            super(null, null, false, false);
+            this.status = status;
+        }
+    }
+
+    private static volatile boolean serving;
+    private static boolean stopping;
+
+    /**
+     * 是否在守护进程中执行命令
+     */
+    static boolean isServing() {
+        return serving;
+    }
+
+    /**
+     * 在当前仓库上启动守护进程，直到收到 gitlet daemon stop
+     */
+    static void serve() {
+        Repository.checkInGitlet();
+        if (SOCKET_FILE.exists()) {
+            if (Client.isRunning()) {
+                System.out.println("守护进程已经在运行");
+                System.exit(1);
+            }
+            // 上一个守护进程没有正常退出
+            SOCKET_FILE.delete();
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET_FILE::delete));
+            System.out.println("守护进程已启动: " + SOCKET_FILE.getPath());
+            serving = true;
+            while (!stopping) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException e) {
+                    // 客户端提前断开，继续处理下一个连接
+                }
+            }
+        } catch (IOException e) {
+            throw error("无法启动守护进程: %s", e.getMessage());
+        } finally {
+            serving = false;
+            SOCKET_FILE.delete();
+        }
+    }
+
+    private static void handle(SocketChannel client) throws IOException {
+        List<String> args = readArgs(new BufferedInputStream(Channels.newInputStream(client)));
+        FrameOutputStream frames = new FrameOutputStream(Channels.newOutputStream(client));
+        PrintStream out = new PrintStream(frames, false, StandardCharsets.UTF_8);
+        // 命令的标准错误（.ignore 读取失败的警告、开启 gitlet.stats 时 merge 的统计等）与标准输出一起返回给客户端
+        PrintStream console = System.out;
+        PrintStream consoleErr = System.err;
+        System.setOut(out);
+        System.setErr(out);
+        int status = 0;
+        try {
+            status = execute(args.toArray(new String[0]));
+        } finally {
+            System.setOut(console);
+            System.setErr(consoleErr);
+        }
+        out.flush();
+        frames.finish(status);
+    }
+
+    /**
+     * 把写入的内容缓冲起来，每次写满或 flush 时作为一帧发送：4 字节的长度，然后是内容
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[1 << 16];
+        private int size;
+
+        FrameOutputStream(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, (1 << 16) + 4));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == buffer.length) {
+                writeFrame();
+            }
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == buffer.length) {
+                    writeFrame();
+                }
+                int n = Math.min(len, buffer.length - size);
+                System.arraycopy(b, off, buffer, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeFrame();
+            out.flush();
+        }
+
+        /**
+         * 发送剩余的输出、结束帧和退出码
+         */
+        void finish(int status) throws IOException {
+            writeFrame();
+            out.writeInt(0);
+            out.writeInt(status);
+            out.flush();
+        }
+
+        private void writeFrame() throws IOException {
+            if (size > 0) {
+                out.writeInt(size);
+                out.write(buffer, 0, size);
+                size = 0;
+            }
+        }
+    }
+
+    /**
+     * 执行一个命令并返回退出码
+     */
+    private static int execute(String[] args) {
+        if (args.length == 0) {
+            System.out.println("请输入命令");
+            return 0;
+        }
+        if (args[0].equals("daemon")) {
+            if (args.length == 2 && args[1].equals("stop")) {
+                stopping = true;
+                System.out.println("守护进程已停止");
+                return 0;
+            }
+            System.out.println("守护进程已经在运行");
+            return 1;
+        }
+        try {
+            Main.execute(args);
+            return 0;
+        } catch (CommandExit e) {
+            if (e.status != 0) {
+                // 失败的命令可能留下了没有写回的修改
+                Index.invalidate();
+            }
+            return e.status;
+        } catch (RuntimeException | Error e) {
+            Index.invalidate();
+            System.out.println(e);
+            return 1;
+        } finally {
+            System.out.flush();
+        }
+    }
+
+    private static List<String> readArgs(InputStream in) throws IOException {
+        List<String> args = new ArrayList<>();
+        ByteArrayOutputStream arg = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == 0) {
+                args.add(arg.toString(StandardCharsets.UTF_8));
+                arg.reset();
+            } else {
+                arg.write(b);
+            }
+        }
+        return args;
+    }
+}
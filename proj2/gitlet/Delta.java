@@ -0,0 +1,213 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * 二进制差异编码，用于在packfile中以“基准对象 + 差异”的形式保存相似的 Blob
+ *
+ * 差异格式：基准长度、结果长度（均为变长整数），之后是若干条指令：
+ * 1. COPY：从基准的 offset 处复制 length 个字节
+ * 2. INSERT：直接写入紧随其后的 length 个字节
+ *
+ * 编码时把基准按 BLOCK 字节一块建立哈希表，再用滚动哈希扫描目标，
+ * 命中后向前后尽量延长匹配区间，无法匹配的字节合并为一条 INSERT
+ */
+class Delta {
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+    /** 匹配的最小长度，同时也是基准建立索引时的块大小 */
+    private static final int BLOCK = 16;
+    /** 滚动哈希的乘数 */
+    private static final int PRIME = 31;
+
+    /**
+     * 计算把 BASE 变为 TARGET 的差异
+     */
+    static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        if (base.length < BLOCK || target.length < BLOCK) {
+            insert(out, target, 0, target.length);
+            return out.toByteArray();
+        }
+        BlockTable table = new BlockTable(base);
+        int highPower = 1;
+        for (int k = 1; k < BLOCK; k++) {
+            highPower *= PRIME;
+        }
+        int insertStart = 0;
+        int i = 0;
+        int hash = hash(target, 0);
+        while (i + BLOCK <= target.length) {
+            int offset = table.find(hash, target, i);
+            if (offset >= 0) {
+                // 向前延长到尚未输出的插入区间，向后延长到不再相同为止
+                int start = i;
+                int baseStart = offset;
+                while (start > insertStart && baseStart > 0 && target[start - 1] == base[baseStart - 1]) {
+                    start--;
+                    baseStart--;
+                }
+                int end = i + BLOCK;
+                int baseEnd = offset + BLOCK;
+                while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+                    end++;
+                    baseEnd++;
+                }
+                insert(out, target, insertStart, start);
+                out.write(COPY);
+                writeVarint(out, baseStart);
+                writeVarint(out, end - start);
+                i = end;
+                insertStart = end;
+                if (i + BLOCK <= target.length) {
+                    hash = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                hash = (hash - target[i] * highPower) * PRIME + target[i + BLOCK];
+            }
+            i++;
+        }
+        insert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * 将差异应用到 BASE 上，还原出目标内容
+     * @throws IllegalArgumentException 差异与基准不匹配或已损坏
+     */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteArrayInputStream in = new ByteArrayInputStream(delta);
+        long baseLength = readVarint(in);
+        long resultLength = readVarint(in);
+        if (baseLength != base.length || resultLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("差异与基准对象不匹配");
+        }
+        byte[] result = new byte[(int) resultLength];
+        int position = 0;
+        while (in.available() > 0) {
+            int op = in.read();
+            if (op == COPY) {
+                long offset = readVarint(in);
+                long length = readVarint(in);
+                if (offset < 0 || length < 0 || offset > base.length - length
+                        || length > result.length - position) {
+                    throw new IllegalArgumentException("差异数据已损坏");
+                }
+                System.arraycopy(base, (int) offset, result, position, (int) length);
+                position += (int) length;
+            } else if (op == INSERT) {
+                long length = readVarint(in);
+                if (length < 0 || length > result.length - position) {
+                    throw new IllegalArgumentException("差异数据已损坏");
+                }
+                if (in.read(result, position, (int) length) != length) {
+                    throw new IllegalArgumentException("差异数据已损坏");
+                }
+                position += (int) length;
+            } else {
+                throw new IllegalArgumentException("未知的差异指令: " + op);
+            }
+        }
+        if (position != result.length) {
+            throw new IllegalArgumentException("差异数据已损坏");
+        }
+        return result;
+    }
+
+    private static void insert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        out.write(INSERT);
+        writeVarint(out, to - from);
+        out.write(data, from, to - from);
+    }
+
+    private static int hash(byte[] data, int from) {
+        int hash = 0;
+        for (int k = 0; k < BLOCK; k++) {
+            hash = hash * PRIME + data[from + k];
+        }
+        return hash;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteArrayInputStream in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IllegalArgumentException("差异数据已损坏");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 基准中每个对齐块的哈希 → 块的偏移量，开放寻址，哈希相同的块只保留第一个
+     */
+    private static class BlockTable {
+        private final byte[] base;
+        private final int[] hashes;
+        /** 偏移量 + 1，0 表示空槽 */
+        private final int[] offsets;
+        private final int mask;
+
+        BlockTable(byte[] base) {
+            this.base = base;
+            int blocks = base.length / BLOCK;
+            int capacity = Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) << 1;
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+            mask = capacity - 1;
+            for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+                int hash = hash(base, offset);
+                int slot = spread(hash) & mask;
+                while (offsets[slot] != 0 && hashes[slot] != hash) {
+                    slot = (slot + 1) & mask;
+                }
+                if (offsets[slot] == 0) {
+                    hashes[slot] = hash;
+                    offsets[slot] = offset + 1;
+                }
+            }
+        }
+
+        /**
+         * 查找与 target[from, from + BLOCK) 内容相同的基准块
+         * @return 基准块的偏移量，没有时返回 -1
+         */
+        int find(int hash, byte[] target, int from) {
+            int slot = spread(hash) & mask;
+            while (offsets[slot] != 0) {
+                if (hashes[slot] == hash) {
+                    int offset = offsets[slot] - 1;
+                    boolean same = Arrays.equals(base, offset, offset + BLOCK, target, from, from + BLOCK);
+                    return same ? offset : -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按行比较文件内容
+ *
+ * 比较前先把每一行映射为一个整数（内容相同的行得到相同的整数），之后的算法只在 int 数组上进行：
+ * 1. match：Myers 线性空间差异算法，先去掉相同的前缀和后缀，再递归寻找“中间蛇形”，
+ *    得到两个序列的最长公共子序列
+ * 2. merge3：以分割点为基准的三方合并（diff3），只有双方都修改了的同一区域才标记为冲突
+ * 3. writeUnified：以统一格式（unified diff）输出两个文件的差异
+ */
+class Diff {
+    /** 判断是否为二进制文件时检查的字节数 */
+    private static final int BINARY_CHECK_LENGTH = 8000;
+    /** 统一格式中每处修改前后显示的上下文行数 */
+    private static final int CONTEXT_LINES = 3;
+    /** 中间蛇形搜索的步数上限，超过上限时不再求最短路径，见 middleSnake */
+    private static final int COST_LIMIT = 256;
+    private static final byte[] NO_NEWLINE = "\n\\ No newline at end of file\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 按行切分的文件内容，每行包含结尾的换行符（最后一行可能没有）
+     */
+    static class Lines {
+        private final byte[] content;
+        /** 第 i 行从 starts[i] 开始，到 starts[i + 1] 结束 */
+        private final int[] starts;
+
+        private Lines(byte[] content, int[] starts) {
+            this.content = content;
+            this.starts = starts;
+        }
+
+        int count() {
+            return starts.length - 1;
+        }
+
+        /**
+         * 第 i 行是否以换行符结尾
+         */
+        boolean endsWithNewline(int i) {
+            return starts[i + 1] > starts[i] && content[starts[i + 1] - 1] == '\n';
+        }
+
+        /**
+         * 写出第 from 行到第 to 行（不含）
+         */
+        void write(ByteArrayOutputStream out, int from, int to) {
+            out.write(content, starts[from], starts[to] - starts[from]);
+        }
+
+        /**
+         * 写出第 i 行，前面加上 PREFIX；没有换行符的最后一行按统一格式的约定加上说明
+         */
+        private void writeLine(OutputStream out, char prefix, int i) throws IOException {
+            out.write(prefix);
+            out.write(content, starts[i], starts[i + 1] - starts[i]);
+            if (!endsWithNewline(i)) {
+                out.write(NO_NEWLINE);
+            }
+        }
+    }
+
+    static Lines split(byte[] content) {
+        int count = 0;
+        for (byte b : content) {
+            if (b == '\n') {
+                count += 1;
+            }
+        }
+        boolean partialLast = content.length > 0 && content[content.length - 1] != '\n';
+        int[] starts = new int[count + (partialLast ? 1 : 0) + 1];
+        int line = 1;
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == '\n') {
+                starts[line++] = i + 1;
+            }
+        }
+        starts[starts.length - 1] = content.length;
+        return new Lines(content, starts);
+    }
+
+    /**
+     * 为几个文件中的所有行分配整数编号，内容相同的行编号相同
+     * @return 每个文件的行编号数组
+     */
+    static int[][] intern(Lines... files) {
+        Map<LineKey, Integer> ids = new HashMap<>();
+        int[][] result = new int[files.length][];
+        for (int f = 0; f < files.length; f++) {
+            Lines lines = files[f];
+            result[f] = new int[lines.count()];
+            for (int i = 0; i < lines.count(); i++) {
+                LineKey key = new LineKey(lines.content, lines.starts[i], lines.starts[i + 1]);
+                Integer id = ids.get(key);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(key, id);
+                }
+                result[f][i] = id;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 一行内容的引用，按内容比较
+     */
+    private static class LineKey {
+        private final byte[] content;
+        private final int from;
+        private final int to;
+        private final int hash;
+
+        LineKey(byte[] content, int from, int to) {
+            this.content = content;
+            this.from = from;
+            this.to = to;
+            int h = 1;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + content[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LineKey)) {
+                return false;
+            }
+            LineKey other = (LineKey) o;
+            return hash == other.hash
+                    && Arrays.equals(content, from, to, other.content, other.from, other.to);
+        }
+    }
+
+    /**
+     * 内容中是否含有 NUL 字节，含有时视为二进制文件，不做按行比较
+     */
+    static boolean isBinary(byte[] content) {
+        int length = Math.min(content.length, BINARY_CHECK_LENGTH);
+        for (int i = 0; i < length; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 计算两个序列的最长公共子序列
+     * @return 长度与 A 相同的数组，a[i] 与 b[result[i]] 匹配，不匹配的位置为 -1
+     */
+    static int[] match(int[] a, int[] b) {
+        int[] match = new int[a.length];
+        Arrays.fill(match, -1);
+        // 只在另一侧出现过的行才可能被匹配，先去掉其余的行，缩小 Myers 算法的输入
+        int maxId = 0;
+        for (int id : a) {
+            maxId = Math.max(maxId, id);
+        }
+        for (int id : b) {
+            maxId = Math.max(maxId, id);
+        }
+        boolean[] inA = new boolean[maxId + 1];
+        boolean[] inB = new boolean[maxId + 1];
+        for (int id : a) {
+            inA[id] = true;
+        }
+        for (int id : b) {
+            inB[id] = true;
+        }
+        int[] aIndex = commonIndexes(a, inB);
+        int[] bIndex = commonIndexes(b, inA);
+        int[] aReduced = new int[aIndex.length];
+        int[] bReduced = new int[bIndex.length];
+        for (int i = 0; i < aIndex.length; i++) {
+            aReduced[i] = a[aIndex[i]];
+        }
+        for (int i = 0; i < bIndex.length; i++) {
+            bReduced[i] = b[bIndex[i]];
+        }
+        int[] reduced = new int[aReduced.length];
+        Arrays.fill(reduced, -1);
+        match(aReduced, 0, aReduced.length, bReduced, 0, bReduced.length, reduced);
+        for (int i = 0; i < reduced.length; i++) {
+            if (reduced[i] >= 0) {
+                match[aIndex[i]] = bIndex[reduced[i]];
+            }
+        }
+        return match;
+    }
+
+    /**
+     * 序列中出现在另一侧（PRESENT）的元素的下标
+     */
+    private static int[] commonIndexes(int[] ids, boolean[] present) {
+        int count = 0;
+        for (int id : ids) {
+            if (present[id]) {
+                count++;
+            }
+        }
+        int[] indexes = new int[count];
+        int next = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (present[ids[i]]) {
+                indexes[next++] = i;
+            }
+        }
+        return indexes;
+    }
+
+    private static void match(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi, int[] match) {
+        // 相同的前缀和后缀直接匹配，文件只有少量修改时几乎所有工作都在这里完成
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            match[aLo++] = bLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            match[--aHi] = --bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi);
+        match(a, aLo, aLo + snake[0], b, bLo, bLo + snake[1], match);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+            match[aLo + x] = bLo + y;
+        }
+        match(a, aLo + snake[2], aHi, b, bLo + snake[3], bHi, match);
+    }
+
+    /**
+     * 从两端同时搜索最短编辑路径，返回两条路径相遇处的蛇形（一段对角线）
+     * 差异很大的输入（例如整个文件的行顺序颠倒）上 Myers 算法的耗时与 N * D 成正比，
+     * 因此步数超过 COST_LIMIT 时放弃最短路径，以已走得最远的位置作为分割点，
+     * 结果仍是正确的公共子序列，只是不一定最长
+     * @return {起点x, 起点y, 终点x, 终点y}，坐标相对于 aLo、bLo
+     */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = Math.min((n + m + 1) / 2, COST_LIMIT);
+        int offset = max + 1;
+        // forward[k]：正向第 k 条对角线上走到的最远 x；backward[k]：反向（从末尾算起）的最远 x
+        int[] forward = new int[2 * offset + 1];
+        int[] backward = new int[2 * offset + 1];
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int reverseK = delta - k;
+                if (odd && reverseK >= -(d - 1) && reverseK <= d - 1
+                        && x + backward[offset + reverseK] >= n) {
+                    return new int[] {startX, startY, x, y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1]))
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                int forwardK = delta - k;
+                if (!odd && forwardK >= -d && forwardK <= d
+                        && x + forward[offset + forwardK] >= n) {
+                    return new int[] {n - x, m - y, n - startX, m - startY};
+                }
+            }
+        }
+        return furthestPoint(forward, backward, offset, max, n, m);
+    }
+
+    /**
+     * 搜索超过步数上限时，在两个方向已到达的位置中选择离各自起点最远的一个，作为空蛇形返回
+     */
+    private static int[] furthestPoint(int[] forward, int[] backward, int offset, int d, int n, int m) {
+        int bestX = 0;
+        int bestY = 0;
+        int bestProgress = -1;
+        for (int k = -d; k <= d; k += 2) {
+            int x = Math.min(forward[offset + k], n);
+            int y = x - k;
+            if (y >= 0 && y <= m && x + y > bestProgress) {
+                bestProgress = x + y;
+                bestX = x;
+                bestY = y;
+            }
+            x = Math.min(backward[offset + k], n);
+            y = x - k;
+            if (y >= 0 && y <= m && x + y > bestProgress) {
+                bestProgress = x + y;
+                bestX = n - x;
+                bestY = m - y;
+            }
+        }
+        return new int[] {bestX, bestY, bestX, bestY};
+    }
+
+    /**
+     * 以统一格式输出从 OLD 到 NEW 的差异，两个文件相同时不输出任何内容
+     * @param oldName 旧文件的名称，如 a/file 或 /dev/null
+     * @param newName 新文件的名称
+     */
+    static void writeUnified(OutputStream out, String oldName, String newName,
+                             byte[] oldContent, byte[] newContent) throws IOException {
+        if (Arrays.equals(oldContent, newContent)) {
+            return;
+        }
+        if (isBinary(oldContent) || isBinary(newContent)) {
+            out.write(("Binary files " + oldName + " and " + newName + " differ\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        Lines a = split(oldContent);
+        Lines b = split(newContent);
+        int[][] ids = intern(a, b);
+        int[] match = match(ids[0], ids[1]);
+
+        // 收集修改：每个修改是 {旧起点, 旧终点, 新起点, 新终点}，两侧之间没有匹配的行
+        List<int[]> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.count() || j < b.count()) {
+            if (i < a.count() && match[i] == j) {
+                i++;
+                j++;
+                continue;
+            }
+            int oldStart = i;
+            int newStart = j;
+            while (i < a.count() && match[i] < 0) {
+                i++;
+            }
+            j = i < a.count() ? match[i] : b.count();
+            changes.add(new int[] {oldStart, i, newStart, j});
+        }
+
+        out.write(("--- " + oldName + "\n+++ " + newName + "\n").getBytes(StandardCharsets.UTF_8));
+        // 相隔不超过两倍上下文的修改合并为一个块
+        int first = 0;
+        while (first < changes.size()) {
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT_LINES) {
+                last++;
+            }
+            writeHunk(out, a, b, changes.subList(first, last + 1));
+            first = last + 1;
+        }
+    }
+
+    private static void writeHunk(OutputStream out, Lines a, Lines b, List<int[]> changes) throws IOException {
+        int[] head = changes.get(0);
+        int[] tail = changes.get(changes.size() - 1);
+        int before = Math.min(CONTEXT_LINES, head[0]);
+        int after = Math.min(CONTEXT_LINES, a.count() - tail[1]);
+        int oldStart = head[0] - before;
+        int newStart = head[2] - before;
+        int oldLength = tail[1] + after - oldStart;
+        int newLength = tail[3] + after - newStart;
+        out.write(("@@ -" + range(oldStart, oldLength) + " +" + range(newStart, newLength) + " @@\n")
+                .getBytes(StandardCharsets.UTF_8));
+        int position = oldStart;
+        for (int[] change : changes) {
+            for (int k = position; k < change[0]; k++) {
+                a.writeLine(out, ' ', k);
+            }
+            for (int k = change[0]; k < change[1]; k++) {
+                a.writeLine(out, '-', k);
+            }
+            for (int k = change[2]; k < change[3]; k++) {
+                b.writeLine(out, '+', k);
+            }
+            position = change[1];
+        }
+        for (int k = position; k < tail[1] + after; k++) {
+            a.writeLine(out, ' ', k);
+        }
+    }
+
+    /**
+     * 块头中的行范围：起始行号（从 1 开始，空范围时为前一行）和行数，行数为 1 时省略
+     */
+    private static String range(int start, int length) {
+        if (length == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /**
+     * 三方合并的结果
+     */
+    static class MergeResult {
+        private final byte[] content;
+        private final boolean conflict;
+
+        MergeResult(byte[] content, boolean conflict) {
+            this.content = content;
+            this.conflict = conflict;
+        }
+
+        byte[] getContent() {
+            return content;
+        }
+
+        boolean hasConflict() {
+            return conflict;
+        }
+    }
+
+    /**
+     * 以 BASE 为共同祖先合并 CURRENT 和 GIVEN
+     *
+     * 分别计算基准与双方的匹配，基准中同时被双方匹配、且在三者中连续对齐的行组成“稳定区”；
+     * 两个稳定区之间的“不稳定区”中，只有一方相对基准有修改时采用该方的内容，
+     * 双方修改相同时采用任一方，否则用冲突标记包围双方的内容
+     */
+    static MergeResult merge3(byte[] base, byte[] current, byte[] given) {
+        Lines o = split(base);
+        Lines a = split(current);
+        Lines b = split(given);
+        int[][] ids = intern(o, a, b);
+        int[] matchA = match(ids[0], ids[1]);
+        int[] matchB = match(ids[0], ids[2]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean conflict = false;
+        int io = 0;
+        int ia = 0;
+        int ib = 0;
+        while (true) {
+            int stable = 0;
+            while (io + stable < o.count() && matchA[io + stable] == ia + stable
+                    && matchB[io + stable] == ib + stable) {
+                stable++;
+            }
+            if (stable > 0) {
+                o.write(out, io, io + stable);
+                io += stable;
+                ia += stable;
+                ib += stable;
+                continue;
+            }
+            // 不稳定区延伸到下一个同时被双方匹配的基准行
+            int eo = io;
+            while (eo < o.count() && (matchA[eo] < 0 || matchB[eo] < 0)) {
+                eo++;
+            }
+            int ea = eo < o.count() ? matchA[eo] : a.count();
+            int eb = eo < o.count() ? matchB[eo] : b.count();
+            if (eo == io && ea == ia && eb == ib) {
+                break;
+            }
+            if (sameLines(ids[1], ia, ea, ids[0], io, eo)) {
+                b.write(out, ib, eb);
+            } else if (sameLines(ids[2], ib, eb, ids[0], io, eo)
+                    || sameLines(ids[1], ia, ea, ids[2], ib, eb)) {
+                a.write(out, ia, ea);
+            } else {
+                conflict = true;
+                writeConflict(out, a, ia, ea, b, ib, eb);
+            }
+            io = eo;
+            ia = ea;
+            ib = eb;
+        }
+        return new MergeResult(out.toByteArray(), conflict);
+    }
+
+    private static boolean sameLines(int[] x, int xFrom, int xTo, int[] y, int yFrom, int yTo) {
+        return Arrays.equals(x, xFrom, xTo, y, yFrom, yTo);
+    }
+
+    private static void writeConflict(ByteArrayOutputStream out, Lines a, int ia, int ea,
+                                      Lines b, int ib, int eb) {
+        out.writeBytes("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8));
+        writeRegion(out, a, ia, ea);
+        out.writeBytes("=======\n".getBytes(StandardCharsets.UTF_8));
+        writeRegion(out, b, ib, eb);
+        out.writeBytes(">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 写出冲突区中一方的内容，最后一行没有换行符时补上，保证冲突标记独占一行
+     */
+    private static void writeRegion(ByteArrayOutputStream out, Lines lines, int from, int to) {
+        lines.write(out, from, to);
+        if (to > from && !lines.endsWithNewline(to - 1)) {
+            out.write('\n');
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的 .ignore 规则，语法与 .gitignore 相同：
+ * 1. 空行和以 # 开头的行被跳过
+ * 2. 以 ! 开头的规则重新包含之前被忽略的路径，后出现的规则优先
+ * 3. 以 / 结尾的规则只匹配目录
+ * 4. 规则中间或开头含有 / 时相对于仓库根目录匹配完整路径，否则匹配任意层级的文件名
+ * 5. * 和 ? 不匹配 /，** 匹配任意层级的目录，[...] 匹配字符集合
+ *
+ * 不含通配符的规则放入哈希表按文件名或路径直接查找，只有含通配符的规则需要逐条用正则匹配
+ * 规则在每个命令中只编译一次；遍历目录时被忽略的目录整体跳过，因此 isIgnored 只需检查路径本身
+ */
+class IgnoreMatcher {
+    private static IgnoreMatcher current;
+    private static long loadedModified;
+    private static long loadedLength;
+
+    private static class Rule {
+        private final int order;
+        private final boolean negated;
+        private final boolean directoryOnly;
+        /** 含通配符的规则编译出的正则，不含通配符时为 null */
+        private final Pattern pattern;
+
+        Rule(int order, boolean negated, boolean directoryOnly, Pattern pattern) {
+            this.order = order;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+            this.pattern = pattern;
+        }
+    }
+
+    private final List<String> patterns;
+    /** 文件名 → 按该文件名匹配的规则（按出现顺序） */
+    private final Map<String, List<Rule>> byName = new HashMap<>();
+    /** 完整路径 → 按该路径匹配的规则 */
+    private final Map<String, List<Rule>> byPath = new HashMap<>();
+    /** 含通配符、匹配文件名的规则，按出现顺序 */
+    private final List<Rule> nameGlobs = new ArrayList<>();
+    /** 含通配符、匹配完整路径的规则 */
+    private final List<Rule> pathGlobs = new ArrayList<>();
+
+    private IgnoreMatcher(List<String> patterns) {
+        this.patterns = Collections.unmodifiableList(patterns);
+        for (int i = 0; i < patterns.size(); i++) {
+            compile(i, patterns.get(i));
+        }
+    }
+
+    /**
+     * 当前仓库的忽略规则，.ignore 文件未变化时复用已编译的规则
+     */
+    static synchronized IgnoreMatcher get() {
+        File file = Repository.IGNORE;
+        if (current == null || file.lastModified() != loadedModified || file.length() != loadedLength) {
+            loadedModified = file.lastModified();
+            loadedLength = file.length();
+            current = new IgnoreMatcher(readPatterns(file));
+        }
+        return current;
+    }
+
+    /**
+     * 读取 .ignore 文件中的规则，跳过空行和注释
+     */
+    private static List<String> readPatterns(File file) {
+        List<String> patterns = new ArrayList<>();
+        if (!file.exists()) {
+            return patterns;
+        }
+        try {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    patterns.add(line);
+                }
+            }
+        } catch (IOException e) {
+            // 如果读取文件时出错，返回空的忽略列表
+            System.err.println("警告：无法读取.ignore文件");
+        }
+        return patterns;
+    }
+
+    /**
+     * 规则的原始文本，按在文件中出现的顺序
+     */
+    List<String> patterns() {
+        return patterns;
+    }
+
+    private void compile(int order, String pattern) {
+        boolean negated = pattern.startsWith("!");
+        if (negated) {
+            pattern = pattern.substring(1);
+        }
+        boolean directoryOnly = pattern.endsWith("/");
+        if (directoryOnly) {
+            pattern = pattern.substring(0, pattern.length() - 1);
+        }
+        boolean anchored = pattern.contains("/");
+        if (pattern.startsWith("/")) {
+            pattern = pattern.substring(1);
+        }
+        if (pattern.isEmpty()) {
+            return;
+        }
+        boolean glob = pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0;
+        Rule rule = new Rule(order, negated, directoryOnly, glob ? Pattern.compile(toRegex(pattern)) : null);
+        if (glob) {
+            (anchored ? pathGlobs : nameGlobs).add(rule);
+        } else {
+            (anchored ? byPath : byName).computeIfAbsent(pattern, k -> new ArrayList<>()).add(rule);
+        }
+    }
+
+    /**
+     * 把通配符模式转换为正则表达式
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (glob.startsWith("**/", i)) {
+                    // 开头或中间的 **/ 匹配零个或多个目录
+                    regex.append("(?:.*/)?");
+                    i += 3;
+                    continue;
+                }
+                if (glob.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 2;
+                    continue;
+                }
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else if (c == '[') {
+                int end = glob.indexOf(']', i + 2);
+                if (end < 0) {
+                    regex.append("\\[");
+                } else {
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                }
+            } else if ("\\.^$|+(){}".indexOf(c) >= 0) {
+                regex.append('\\').append(c);
+            } else {
+                regex.append(c);
+            }
+            i++;
+        }
+        return regex.toString();
+    }
+
+    /**
+     * 路径本身是否被忽略，不检查上级目录
+     * 自顶向下遍历时被忽略的目录不会被进入，因此只检查路径本身就足够了
+     * @param path 相对于仓库根目录的路径
+     */
+    boolean isIgnored(String path, boolean isDirectory) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        Rule last = null;
+        last = lastMatch(byName.get(name), isDirectory, last);
+        last = lastMatch(byPath.get(path), isDirectory, last);
+        last = lastMatch(nameGlobs, name, isDirectory, last);
+        last = lastMatch(pathGlobs, path, isDirectory, last);
+        return last != null && !last.negated;
+    }
+
+    /**
+     * 路径或它的任一上级目录是否被忽略
+     * 与 git 相同，上级目录被忽略时，其中的文件不能再被 ! 规则重新包含
+     */
+    boolean isIgnoredPath(String path, boolean isDirectory) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (isIgnored(path.substring(0, slash), true)) {
+                return true;
+            }
+        }
+        return isIgnored(path, isDirectory);
+    }
+
+    private static Rule lastMatch(List<Rule> rules, boolean isDirectory, Rule last) {
+        if (rules == null) {
+            return last;
+        }
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (last != null && rule.order < last.order) {
+                break;
+            }
+            if (!rule.directoryOnly || isDirectory) {
+                return rule;
+            }
+        }
+        return last;
+    }
+
+    private static Rule lastMatch(List<Rule> rules, String subject, boolean isDirectory, Rule last) {
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if (last != null && rule.order < last.order) {
+                break;
+            }
+            if ((!rule.directoryOnly || isDirectory) && rule.pattern.matcher(subject).matches()) {
+                return rule;
+            }
+        }
+        return last;
+    }
+}
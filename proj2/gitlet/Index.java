@@ -0,0 +1,280 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Utils.*;
+
+/**
+ * 索引文件（.gitlet/index），包含两部分：
+ * 1. 暂存区：按路径排序的 文件名 → Blob哈希，哈希为 null 表示该文件被标记删除
+ * 2. stat 缓存：文件名 → (大小, 修改时间, inode, Blob哈希)，
+ *    文件的 stat 信息与缓存一致时直接复用哈希，不必重新读取并计算文件内容
+ *
+ * 为避免“同一时间戳内被修改”的问题（racy timestamp），只有当文件的修改时间
+ * 早于计算哈希的时间超过 RACY_WINDOW_MS 时，缓存的哈希才会被信任
+ *
+ * 索引文件使用 Codec 的二进制格式：两部分共用一张按路径排序、前缀压缩的路径表，
+ * 条目中只记录路径在表中的序号；旧版本以 Java 序列化保存的索引在下次写回时被转换
+ */
+class Index implements Serializable {
+    // 与旧版本保持一致，使旧仓库中以 Java 序列化保存的索引仍可读取
+    private static final long serialVersionUID = -8124972025213980877L;
+
+    /** 文件系统时间戳的最大粒度，修改时间落在这个窗口内的缓存不可信 */
+    private static final long RACY_WINDOW_MS = 1000;
+
+    /** 二进制编码的类型字节和版本，见 Codec */
+    private static final int CODEC_TYPE = 'i';
+    private static final int CODEC_VERSION = 1;
+
+    /**
+     * 一个工作区文件的 stat 信息及其内容哈希
+     */
+    static class Stat implements Serializable {
+        private static final long serialVersionUID = 2523702591463753990L;
+
+        private final long size;
+        private final long mtime;
+        private final String inode;
+        /** 读取 stat 信息的时间，内容总是在这之后才被读取 */
+        private final long statedAt;
+        private String blobID;
+
+        private Stat(long size, long mtime, String inode, long statedAt) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.statedAt = statedAt;
+        }
+
+        boolean sameFile(Stat other) {
+            return size == other.size && mtime == other.mtime && inode.equals(other.inode);
+        }
+
+        private boolean isRacy() {
+            return mtime >= statedAt - RACY_WINDOW_MS;
+        }
+    }
+
+    private TreeMap<String, String> staged = new TreeMap<>();
+    private HashMap<String, Stat> stats = new HashMap<>();
+
+    /** 旧版本以 Java 序列化保存的索引中字段的类型，读取时由 readObject 转换 */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("staged", HashMap.class),
+        new ObjectStreamField("stats", HashMap.class),
+    };
+
+    /** 当前进程中已加载的索引 */
+    private static Index current;
+    /** 加载或写回 current 时索引文件的 stat 信息 */
+    private static Stat currentStat;
+
+    /**
+     * 获取当前仓库的索引，只在首次调用时读取文件
+     * 旧版本仓库的索引文件只保存了暂存区，读取时会被转换为新格式
+     */
+    @SuppressWarnings("unchecked")
+    static Index get() {
+        if (current == null) {
+            if (!Repository.STAGING_AREA.exists()) {
+                current = new Index();
+            } else {
+                byte[] data = readContents(Repository.STAGING_AREA);
+                if (!Codec.isSerialized(data)) {
+                    current = decode(data);
+                } else {
+                    Serializable stored = deserialize(data, Serializable.class);
+                    if (stored instanceof Index) {
+                        current = (Index) stored;
+                    } else {
+                        current = new Index();
+                        current.staged = new TreeMap<>((Map<String, String>) stored);
+                    }
+                }
+                currentStat = stat(Repository.STAGING_AREA);
+            }
+        }
+        return current;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        staged = new TreeMap<>((Map<String, String>) fields.get("staged", null));
+        stats = (HashMap<String, Stat>) fields.get("stats", null);
+    }
+
+    /**
+     * 暂存区的副本，按路径排序
+     */
+    SortedMap<String, String> getStaged() {
+        return new TreeMap<>(staged);
+    }
+
+    /**
+     * 替换暂存区内容并写回索引文件
+     */
+    void saveStaged(Map<String, String> stagingArea) {
+        staged = new TreeMap<>(stagingArea);
+        save();
+    }
+
+    /**
+     * 写回索引文件，写回前丢弃多余的 stat 缓存
+     */
+    void save() {
+        prune();
+        Transaction.write(Repository.STAGING_AREA, encode());
+        if (this == current) {
+            currentStat = stat(Repository.STAGING_AREA);
+        }
+    }
+
+    private byte[] encode() {
+        Codec.Output out = new Codec.Output(CODEC_TYPE, CODEC_VERSION);
+        TreeSet<String> paths = new TreeSet<>(staged.keySet());
+        paths.addAll(stats.keySet());
+        List<String> table = new ArrayList<>(paths);
+        out.writePaths(table);
+        Map<String, Integer> ordinals = new HashMap<>(table.size() * 2);
+        for (int i = 0; i < table.size(); i++) {
+            ordinals.put(table.get(i), i);
+        }
+
+        out.writeVarLong(staged.size());
+        for (Map.Entry<String, String> entry : staged.entrySet()) {
+            out.writeVarLong(ordinals.get(entry.getKey()));
+            writeNullableId(out, entry.getValue());
+        }
+        out.writeVarLong(stats.size());
+        for (Map.Entry<String, Stat> entry : stats.entrySet()) {
+            Stat stat = entry.getValue();
+            out.writeVarLong(ordinals.get(entry.getKey()));
+            out.writeVarLong(stat.size);
+            out.writeSignedVarLong(stat.mtime);
+            out.writeString(stat.inode);
+            out.writeSignedVarLong(stat.statedAt);
+            writeNullableId(out, stat.blobID);
+        }
+        return out.toByteArray();
+    }
+
+    private static Index decode(byte[] data) {
+        try {
+            Codec.Input in = new Codec.Input(data, CODEC_TYPE, CODEC_VERSION);
+            String[] table = in.readPaths();
+            Index index = new Index();
+            int stagedCount = in.readVarInt();
+            index.staged = new TreeMap<>();
+            for (int i = 0; i < stagedCount; i++) {
+                String path = table[in.readVarInt()];
+                index.staged.put(path, readNullableId(in));
+            }
+            int statCount = in.readVarInt();
+            index.stats = new HashMap<>(statCount * 2);
+            for (int i = 0; i < statCount; i++) {
+                String path = table[in.readVarInt()];
+                Stat stat = new Stat(in.readVarLong(), in.readSignedVarLong(), in.readString(),
+                        in.readSignedVarLong());
+                stat.blobID = readNullableId(in);
+                index.stats.put(path, stat);
+            }
+            return index;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw error("索引文件已损坏");
+        }
+    }
+
+    private static void writeNullableId(Codec.Output out, String id) {
+        out.writeByte(id == null ? 0 : 1);
+        if (id != null) {
+            out.writeId(id);
+        }
+    }
+
+    private static String readNullableId(Codec.Input in) {
+        return in.readByte() == 0 ? null : in.readId();
+    }
+
+    /**
+     * 丢弃既不在当前提交中、也不在暂存区中的路径的 stat 缓存（文件已被删除、不再被跟踪等），
+     * 只有这些路径的哈希会被再次查询，否则缓存会随着历史上出现过的路径不断增长
+     */
+    private void prune() {
+        if (stats.isEmpty() || !Repository.HEAD.isFile()) {
+            return;
+        }
+        Map<String, String> tracked = Repository.getCurrentCommit().getFileToBlobID();
+        stats.keySet().removeIf(path -> !staged.containsKey(path) && !tracked.containsKey(path));
+    }
+
+    /**
+     * 索引文件在加载之后被其他进程修改过时丢弃已加载的索引，下次使用时重新读取
+     */
+    static void refresh() {
+        if (current == null) {
+            return;
+        }
+        if (currentStat == null || !Repository.STAGING_AREA.isFile()
+                || !stat(Repository.STAGING_AREA).sameFile(currentStat)) {
+            invalidate();
+        }
+    }
+
+    /**
+     * 丢弃已加载的索引，包括还没有写回的修改
+     */
+    static void invalidate() {
+        current = null;
+        currentStat = null;
+    }
+
+    /**
+     * 读取文件当前的 stat 信息
+     */
+    static Stat stat(File file) {
+        long now = System.currentTimeMillis();
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            Object key = attributes.fileKey();
+            return new Stat(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                    key == null ? "" : key.toString(), now);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * 如果文件自上次计算哈希后没有变化，返回缓存的 Blob 哈希，否则返回 null
+     * @param stat 文件当前的 stat 信息
+     */
+    String cachedBlobID(String filePath, Stat stat) {
+        Stat cached = stats.get(filePath);
+        if (cached == null || cached.isRacy() || !cached.sameFile(stat)) {
+            return null;
+        }
+        return cached.blobID;
+    }
+
+    /**
+     * 记录文件内容的哈希，stat 必须是在读取文件内容之前获取的
+     */
+    void record(String filePath, Stat stat, String blobID) {
+        stat.blobID = blobID;
+        stats.put(filePath, stat);
+    }
+}
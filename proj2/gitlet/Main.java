@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author 逐辰
  */
@@ -9,23 +11,91 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        ObjectCache.reportOnExit();
+        RepositoryLock.reportOnExit();
         if (args.length == 0) {
             System.out.println("请输入命令");
             System.exit(0);
         }
+        if (args[0].equals("daemon")) {
+            daemon(args);
+            return;
+        }
+        execute(args);
+    }
+
+    /**
+     * 在仓库锁和事务中执行一个命令，守护进程也通过这里执行客户端发来的命令
+     */
+    static void execute(String[] args) {
+        RepositoryLock.acquire(lockMode(args[0]));
+        try {
+            // 上一个命令中途崩溃时先恢复仓库状态，每个命令对状态文件的修改在一个事务中一起提交
+            Transaction.recover();
+            // 守护进程中缓存的状态可能已被其他进程修改
+            Index.refresh();
+            CommitGraph.refresh();
+            ObjectStore.refresh();
+            Transaction.begin();
+            try {
+                run(args);
+            } catch (Daemon.CommandExit e) {
+                // 命令提前结束，与退出进程时一样提交
+                Transaction.commit();
+                throw e;
+            } catch (RuntimeException | Error e) {
+                Transaction.rollback();
+                throw e;
+            }
+            Transaction.commit();
+        } finally {
+            RepositoryLock.release();
+        }
+    }
+
+    /** gitlet daemon 启动守护进程，gitlet daemon stop 停止正在运行的守护进程 */
+    private static void daemon(String[] args) {
+        if (args.length == 1) {
+            Daemon.serve();
+        } else if (args.length == 2 && args[1].equals("stop")) {
+            System.exit(Client.send(args));
+        } else {
+            System.out.println("参数错误");
+            System.exit(1);
+        }
+    }
+
+    /** 命令需要的仓库锁：只读命令可以与其他只读命令同时执行，需要写入仓库时（如迁移旧格式）再升级为独占锁 */
+    private static RepositoryLock.Mode lockMode(String command) {
+        switch (command) {
+            case "log":
+            case "global-log":
+            case "find":
+            case "diff":
+                return RepositoryLock.Mode.SHARED;
+            case "status":
+                // status 在独占时顺便写回索引中的 stat 缓存
+                return RepositoryLock.Mode.PREFER_EXCLUSIVE;
+            default:
+                return RepositoryLock.Mode.EXCLUSIVE;
+        }
+    }
+
+    /** 执行 ARGS 指定的命令 */
+    private static void run(String[] args) {
         String firstArg = args[0];
         switch(firstArg) {
             case "init":
                 if (args.length != 1) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.init();
                 break;
             case "add":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.add(args[1]);
                 break;
@@ -39,14 +109,14 @@ public class Main {
             case "commit":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.commit(args[1]);
                 break;
             case "rm":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.rm(args[1]);
                 break;
@@ -59,21 +129,21 @@ public class Main {
             case "global-log":
                 if (args.length != 1) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.globalLog();
                 break;
             case  "find":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.find(args[1]);
                 break;
             case "status":
                 if (args.length != 1) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.status();
                 break;
@@ -86,50 +156,64 @@ public class Main {
                     Repository.checkout(args[1], args[2]);
                 }else {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 break;
             case  "branch":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.branch(args[1]);
                 break;
             case "rm-branch":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.rmBranch(args[1]);
                 break;
             case "reset":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.reset(args[1], false);
                 break;
             case "merge":
                 if (args.length != 2) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.merge(args[1]);
                 break;
             case "undo":
                 if (args.length != 1) {
                     System.out.println("参数错误");
-                    System.exit(1);
+                    Utils.exit(1);
                 }
                 Repository.undo();
                 break;
+            case "diff":
+                if (args.length > 3) {
+                    System.out.println("参数错误");
+                    Utils.exit(1);
+                }
+                Repository.diff(Arrays.copyOfRange(args, 1, args.length));
+                break;
+            case "gc":
+                if (args.length != 1) {
+                    System.out.println("参数错误");
+                    Utils.exit(1);
+                }
+                Repository.gc();
+                break;
             case "--help":
                 Repository.help();
                 break;
             default:
                 System.out.println("命令错误，请使用--help获取帮助");
-                System.exit(1);
+                Utils.exit(1);
         }
     }
 }
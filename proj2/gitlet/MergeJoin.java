@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * 有序映射的合并连接（merge-join）：按键从小到大同时遍历几个按路径排序的映射，每个映射只顺序遍历一遍，
+ * 代替先求所有键的并集、再逐个到各个映射中查找的做法
+ */
+class MergeJoin {
+    interface Visitor {
+        /**
+         * @param values values[i] 为 KEY 在第 i 个映射中的值，不存在时为 null；数组在各次调用之间复用
+         */
+        void visit(String key, String[] values);
+    }
+
+    /**
+     * 依次访问 MAPS 中出现过的每个键，映射必须使用键的自然顺序，值不能为 null
+     */
+    static void forEach(List<? extends SortedMap<String, String>> maps, Visitor visitor) {
+        int n = maps.size();
+        List<Iterator<Map.Entry<String, String>>> iterators = new ArrayList<>(n);
+        // 每个映射当前的条目，遍历完的映射为 null
+        List<Map.Entry<String, String>> heads = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            iterators.add(maps.get(i).entrySet().iterator());
+            heads.add(next(iterators.get(i)));
+        }
+        String[] values = new String[n];
+        while (true) {
+            String key = null;
+            for (Map.Entry<String, String> head : heads) {
+                if (head != null && (key == null || head.getKey().compareTo(key) < 0)) {
+                    key = head.getKey();
+                }
+            }
+            if (key == null) {
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                Map.Entry<String, String> head = heads.get(i);
+                if (head != null && head.getKey().equals(key)) {
+                    values[i] = head.getValue();
+                    heads.set(i, next(iterators.get(i)));
+                } else {
+                    values[i] = null;
+                }
+            }
+            visitor.visit(key, values);
+        }
+    }
+
+    private static Map.Entry<String, String> next(Iterator<Map.Entry<String, String>> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+}
@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static gitlet.Utils.*;
+
+/**
+ * 提交信息的倒排索引（.gitlet/message-index），供 find 做子串查找
+ *
+ * 索引的词是提交信息 UTF-8 编码中每 3 个连续字节（trigram），每个词对应包含它的提交在提交图中的序号。
+ * 一条信息包含查询串时必然包含查询串的所有 trigram，因此只需检查所有 trigram 的序号列表的交集，
+ * 再从 commit-messages 中取出这些候选提交的信息确认；少于 3 个字节的查询直接扫描所有信息
+ *
+ * 索引只覆盖提交图中的前 N 个提交，之后追加的提交在查找时直接扫描；
+ * 提交时如果未索引的提交超过 max(MIN_UNINDEXED, N / 4)，整个索引会被重建，平摊到每次提交的开销是常数
+ *
+ * 文件格式：MAGIC、N、第 N 个提交的 ID、词数 K，K 条 (词, 序号列表起点) 记录和一个结束位置，最后是所有序号
+ */
+class MessageIndex {
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "message-index");
+
+    private static final int MAGIC = 0x474d4931; // "GMI1"
+    /** 未索引的提交不超过这个数量时不重建索引 */
+    private static final int MIN_UNINDEXED = 64;
+    private static final int HEADER_SIZE = 4 + 4 + UID_LENGTH + 4;
+
+    /**
+     * 查找提交信息包含 QUERY 的提交，按提交图中的顺序返回
+     */
+    static List<CommitGraph.Node> find(String query) {
+        int total = CommitGraph.size();
+        byte[] bytes = query.getBytes(StandardCharsets.UTF_8);
+        List<CommitGraph.Node> result = new ArrayList<>();
+        int indexed = 0;
+        if (bytes.length >= 3) {
+            ByteBuffer index = open(total);
+            if (index != null) {
+                indexed = index.getInt(4);
+                for (int ordinal : candidates(index, bytes)) {
+                    CommitGraph.Node node = CommitGraph.at(ordinal);
+                    if (CommitGraph.message(node).contains(query)) {
+                        result.add(node);
+                    }
+                }
+            }
+        }
+        // 没有被索引的提交逐个检查
+        for (int i = indexed; i < total; i++) {
+            CommitGraph.Node node = CommitGraph.at(i);
+            if (CommitGraph.message(node).contains(query)) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 新提交追加到提交图之后调用，未索引的提交太多时重建索引
+     */
+    static void update() {
+        int total = CommitGraph.size();
+        int indexed = 0;
+        ByteBuffer index = open(total);
+        if (index != null) {
+            indexed = index.getInt(4);
+        }
+        if (total - indexed > Math.max(MIN_UNINDEXED, indexed / 4)) {
+            rebuild(total);
+        }
+    }
+
+    /**
+     * 映射索引文件；文件不存在、格式不对或与提交图不一致（提交图被重建过）时返回 null
+     */
+    private static ByteBuffer open(int total) {
+        if (!INDEX_FILE.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int indexed = index.getInt(4);
+            if (index.getInt(0) != MAGIC || indexed <= 0 || indexed > total) {
+                return null;
+            }
+            byte[] lastId = new byte[UID_LENGTH];
+            index.get(8, lastId);
+            if (!CommitGraph.at(indexed - 1).getId().equals(new String(lastId, StandardCharsets.US_ASCII))) {
+                return null;
+            }
+            return index;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 包含 QUERY 所有 trigram 的已索引提交的序号，从小到大排列
+     */
+    private static int[] candidates(ByteBuffer index, byte[] query) {
+        int[] grams = trigrams(query, query.length);
+        int keys = index.getInt(8 + UID_LENGTH);
+        // 每个 trigram 的序号列表在文件中的范围，先处理最短的列表
+        long[] ranges = new long[grams.length];
+        for (int i = 0; i < grams.length; i++) {
+            int slot = search(index, keys, grams[i]);
+            if (slot < 0) {
+                return new int[0];
+            }
+            int start = index.getInt(HEADER_SIZE + slot * 8 + 4);
+            int end = index.getInt(HEADER_SIZE + (slot + 1) * 8 + 4);
+            ranges[i] = ((long) (end - start) << 32) | slot;
+        }
+        Arrays.sort(ranges);
+        int postings = HEADER_SIZE + (keys + 1) * 8;
+        int[] result = null;
+        for (long range : ranges) {
+            int slot = (int) range;
+            int start = index.getInt(HEADER_SIZE + slot * 8 + 4);
+            int end = index.getInt(HEADER_SIZE + (slot + 1) * 8 + 4);
+            if (result == null) {
+                result = new int[end - start];
+                for (int i = start; i < end; i++) {
+                    result[i - start] = index.getInt(postings + i * 4);
+                }
+                continue;
+            }
+            // 与当前候选求交集，两个列表都是有序的
+            int count = 0;
+            int i = start;
+            for (int ordinal : result) {
+                while (i < end && index.getInt(postings + i * 4) < ordinal) {
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+                if (index.getInt(postings + i * 4) == ordinal) {
+                    result[count++] = ordinal;
+                }
+            }
+            result = Arrays.copyOf(result, count);
+            if (count == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在有序的词表中二分查找 GRAM，不存在时返回 -1
+     */
+    private static int search(ByteBuffer index, int keys, int gram) {
+        int low = 0;
+        int high = keys - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int key = index.getInt(HEADER_SIZE + mid * 8);
+            if (key < gram) {
+                low = mid + 1;
+            } else if (key > gram) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * BYTES 前 LENGTH 个字节中所有不同的 trigram，从小到大排列
+     */
+    private static int[] trigrams(byte[] bytes, int length) {
+        if (length < 3) {
+            return new int[0];
+        }
+        int[] grams = new int[length - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = (bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff);
+        }
+        Arrays.sort(grams);
+        int count = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[count++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, count);
+    }
+
+    /**
+     * 为提交图中的所有提交重建索引，先写临时文件再原子替换
+     */
+    private static void rebuild(int total) {
+        // 每个 (trigram, 序号) 编码为一个 long，排序后相同 trigram 的序号连续且有序
+        long[] pairs = new long[64];
+        int size = 0;
+        for (int ordinal = 0; ordinal < total; ordinal++) {
+            byte[] message = CommitGraph.message(CommitGraph.at(ordinal)).getBytes(StandardCharsets.UTF_8);
+            for (int gram : trigrams(message, message.length)) {
+                if (size == pairs.length) {
+                    pairs = Arrays.copyOf(pairs, size * 2);
+                }
+                pairs[size++] = (long) gram << 32 | ordinal;
+            }
+        }
+        Arrays.sort(pairs, 0, size);
+        int keys = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || (pairs[i] >>> 32) != (pairs[i - 1] >>> 32)) {
+                keys++;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (keys + 1) * 8 + size * 4);
+        buffer.putInt(MAGIC).putInt(total);
+        buffer.put(CommitGraph.at(total - 1).getId().getBytes(StandardCharsets.US_ASCII));
+        buffer.putInt(keys);
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || (pairs[i] >>> 32) != (pairs[i - 1] >>> 32)) {
+                buffer.putInt((int) (pairs[i] >>> 32)).putInt(i);
+            }
+        }
+        buffer.putInt(-1).putInt(size);
+        for (int i = 0; i < size; i++) {
+            buffer.putInt((int) pairs[i]);
+        }
+        File temp = join(Repository.GITLET_DIR, "message-index.tmp");
+        writeContents(temp, buffer.array());
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("写入提交信息索引失败: %s", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 进程内的对象缓存，按对象ID缓存已读取的对象，容量以字节计，超出时淘汰最久未使用的对象
+ * 缓存的对象在多个调用方之间共享，调用方不能修改取得的对象（包括 byte[] 的内容）
+ *
+ * 每个缓存都记录命中、未命中和淘汰次数；设置系统属性 gitlet.stats=true 时，
+ * 命令结束时会把所有缓存的统计信息输出到标准错误
+ */
+class ObjectCache<V> {
+    /** 所有创建过的缓存，用于输出统计信息 */
+    private static final List<ObjectCache<?>> CACHES = new ArrayList<>();
+
+    private final String name;
+    private final long capacity;
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static class Entry<V> {
+        private final V value;
+        private final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param name 统计信息中显示的名称
+     * @param capacity 缓存的总容量（字节）
+     */
+    ObjectCache(String name, long capacity) {
+        this.name = name;
+        this.capacity = capacity;
+        synchronized (CACHES) {
+            CACHES.add(this);
+        }
+    }
+
+    /**
+     * 获取缓存的对象，不存在时返回 null
+     */
+    synchronized V get(String id) {
+        Entry<V> entry = entries.get(id);
+        if (entry == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return entry.value;
+    }
+
+    /**
+     * 放入对象，超过容量时依次淘汰最久未使用的对象；单个对象超过总容量时不缓存
+     * @param weight 对象占用的字节数
+     */
+    synchronized void put(String id, V value, long weight) {
+        if (weight > capacity) {
+            return;
+        }
+        Entry<V> old = entries.put(id, new Entry<>(value, weight));
+        if (old != null) {
+            size -= old.weight;
+        }
+        size += weight;
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (size > capacity) {
+            size -= eldest.next().weight;
+            eldest.remove();
+            evictions += 1;
+        }
+    }
+
+    private synchronized String stats() {
+        return String.format("%s: %d hits, %d misses, %d evictions, %d objects, %d/%d bytes",
+                name, hits, misses, evictions, entries.size(), size, capacity);
+    }
+
+    /**
+     * 如果开启了 gitlet.stats，在进程退出时输出所有缓存的统计信息
+     */
+    static void reportOnExit() {
+        if (!Boolean.getBoolean("gitlet.stats")) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            synchronized (CACHES) {
+                for (ObjectCache<?> cache : CACHES) {
+                    System.err.println("[cache] " + cache.stats());
+                }
+            }
+        }));
+    }
+}
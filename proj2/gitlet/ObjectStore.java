@@ -0,0 +1,1197 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Utils.*;
+
+/**
+ * 对象库，负责 .gitlet/objects 中所有对象（Blob、Commit）的读写
+ *
+ * 对象有两种存放方式：
+ * 1. 松散对象：每个对象一个文件，按ID前两位分桶存放（objects/ab/cdef...），
+ *    新写入的对象总是先以这种方式存放
+ * 2. 打包对象：执行 gc 后，松散对象被追加进 objects/pack/objects.pack，
+ *    并在 objects.idx 中记录按ID排序的 ID → 偏移量 索引，查找时通过内存映射二分查找
+ *
+ * 读取时先查松散对象，再查packfile，调用方无需关心对象存放在哪里
+ * 松散对象文件的位置统一由 looseFile 解析
+ *
+ * Blob 以 "blob <内容长度>\0" 开头，后面直接跟文件内容，读写时按固定大小分块流式处理，
+ * 不需要把整个文件放进内存；Commit 和 Tree 使用 Codec 的二进制编码，以类型字节 'c'、't' 开头
+ * 旧版本仓库中以 Java 序列化保存的对象依然可以读取，升级到格式版本 4 时其中的提交和树会被转换
+ *
+ * 从格式版本 3 开始，对象在写入时经过 deflate 压缩，gc 时原样复制进packfile；
+ * 读取时根据第一个字节判断是否需要解压（zlib 数据总以 0x78 开头），
+ * 因此旧仓库中未压缩的对象无需改写即可继续读取
+ *
+ * gc 时同一路径的相邻版本会尝试以差异（Delta）的形式写入packfile，
+ * 差异链的深度受 MAX_DELTA_DEPTH 限制，读取时还原出的基准对象保存在按字节数限制的缓存中
+ *
+ * 同一命令中反复读取的对象由 ObjectCache 缓存：解码后的提交和树、Blob 的内容、差异基准各一个缓存
+ */
+class ObjectStore {
+    /** 对象库格式版本：所有松散对象平铺在 objects 目录下 */
+    static final int FLAT_LAYOUT = 1;
+    /** 对象库格式版本：松散对象按ID前两位分桶 */
+    static final int FANOUT_LAYOUT = 2;
+    /** 对象库格式版本：新写入的对象经过压缩 */
+    static final int COMPRESSED = 3;
+    /** 对象库格式版本：提交和树使用二进制编码 */
+    static final int BINARY_OBJECTS = 4;
+    /** 新建仓库使用的格式版本 */
+    static final int CURRENT_FORMAT = BINARY_OBJECTS;
+
+    static final File PACK_DIR = join(Repository.OBJECTS_DIR, "pack");
+    static final File PACK_FILE = join(PACK_DIR, "objects.pack");
+    static final File PACK_INDEX_FILE = join(PACK_DIR, "objects.idx");
+
+    /** packfile 文件头：魔数 + 版本号 */
+    private static final byte[] PACK_MAGIC = "GPAK".getBytes(StandardCharsets.US_ASCII);
+    /** 索引文件头：魔数 + 版本号 */
+    private static final byte[] INDEX_MAGIC = "GIDX".getBytes(StandardCharsets.US_ASCII);
+    /** 版本 1 的条目长度为 4 字节，版本 2 为 8 字节，以支持超过 2GB 的对象 */
+    private static final int PACK_VERSION = 2;
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    /** 对象ID的二进制长度（SHA-1 为 20 字节） */
+    private static final int RAW_ID_LENGTH = UID_LENGTH / 2;
+    /** 索引中每条记录的长度：20 字节ID + 8 字节偏移量 */
+    private static final int INDEX_ENTRY_SIZE = RAW_ID_LENGTH + 8;
+    /** 索引中按ID首字节划分的累计计数表，与 git 的 fan-out 表相同 */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /** packfile 中条目的类型：完整对象 */
+    private static final byte TYPE_FULL = 0;
+    /** packfile 中条目的类型：相对于另一个对象的差异，条目头后附基准对象的ID */
+    private static final byte TYPE_DELTA = 1;
+
+    /** 差异链的最大深度，限制读取一个对象时需要依次还原的对象数量 */
+    private static final int MAX_DELTA_DEPTH = 10;
+    /** 为每个对象尝试的候选基准数量：同一路径上之前的若干个版本 */
+    private static final int DELTA_WINDOW = 10;
+    /** 超过该大小的对象不计算差异，直接完整保存 */
+    private static final long MAX_DELTA_OBJECT_SIZE = 64L * 1024 * 1024;
+    /** 差异基准缓存的容量（字节） */
+    private static final long BASE_CACHE_LIMIT = 32L * 1024 * 1024;
+    /** 提交、树等解码后对象缓存的容量（按编码后的字节数计） */
+    private static final long OBJECT_CACHE_LIMIT = 16L * 1024 * 1024;
+    /** Blob 内容缓存的容量（字节） */
+    private static final long BLOB_CACHE_LIMIT = 64L * 1024 * 1024;
+
+    /** Blob 文件头的前缀，完整的文件头为 "blob <内容长度>\0" */
+    private static final byte[] BLOB_PREFIX = "blob ".getBytes(StandardCharsets.US_ASCII);
+    /** Java 序列化数据的第一个字节，用于识别旧格式的对象 */
+    private static final int SERIALIZED_MAGIC = Codec.SERIALIZED_MAGIC;
+    /** 识别旧格式对象的类名时读取的字节数 */
+    private static final int SERIALIZED_PEEK = 64;
+    /** zlib 数据的第一个字节（deflate、32K 窗口） */
+    private static final int ZLIB_MAGIC = 0x78;
+    /** 流式读写时每次处理的字节数 */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** 当前进程中已映射的索引和打开的packfile，首次查询时才加载 */
+    private static MappedByteBuffer packIndex;
+    private static int packIndexCount;
+    private static FileChannel packChannel;
+    private static int packVersion;
+    private static boolean packLoaded = false;
+    /** 加载时索引文件的 stat 信息，文件不存在时为 null */
+    private static Index.Stat packIndexStat;
+    /** 当前进程是否已检查过对象库格式 */
+    private static boolean formatChecked = false;
+    private static final ObjectCache<Serializable> objectCache = new ObjectCache<>("objects", OBJECT_CACHE_LIMIT);
+    private static final ObjectCache<byte[]> blobCache = new ObjectCache<>("blobs", BLOB_CACHE_LIMIT);
+    /** 最近还原过的差异基准：ID → 对象内容（含文件头） */
+    private static final ObjectCache<byte[]> baseCache = new ObjectCache<>("delta-bases", BASE_CACHE_LIMIT);
+
+    /**
+     * 松散对象对应的文件：objects/<ID前两位>/<ID其余部分>
+     */
+    private static File looseFile(String id) {
+        return join(Repository.OBJECTS_DIR, id.substring(0, 2), id.substring(2));
+    }
+
+    /**
+     * 为新仓库写入格式版本
+     */
+    static void initFormat() {
+        writeContents(Repository.FORMAT_FILE, Integer.toString(CURRENT_FORMAT));
+        formatChecked = true;
+    }
+
+    /**
+     * 读取仓库的格式版本，没有版本文件的旧仓库视为平铺布局
+     */
+    static int formatVersion() {
+        if (!Repository.FORMAT_FILE.isFile()) {
+            return FLAT_LAYOUT;
+        }
+        return Integer.parseInt(readContentsAsString(Repository.FORMAT_FILE).trim());
+    }
+
+    /**
+     * 确保对象库已是当前格式，旧的平铺布局会被自动迁移为分桶布局，
+     * 以 Java 序列化保存的提交和树会被转换为二进制编码
+     * 已有的未压缩对象保持原样，只有之后写入的对象才会压缩
+     * 每个进程只检查一次
+     */
+    private static synchronized void ensureFormat() {
+        if (formatChecked) {
+            return;
+        }
+        formatChecked = true;
+        int version = formatVersion();
+        if (version < CURRENT_FORMAT && RepositoryLock.upgrade()) {
+            // 迁移需要独占锁，升级期间其他进程可能已经完成了迁移
+            version = formatVersion();
+        }
+        if (version < FANOUT_LAYOUT) {
+            migrateFlatLayout();
+        }
+        if (version < BINARY_OBJECTS) {
+            convertSerializedObjects();
+        }
+        if (version < CURRENT_FORMAT) {
+            writeContents(Repository.FORMAT_FILE, Integer.toString(CURRENT_FORMAT));
+        }
+    }
+
+    /**
+     * 将平铺在 objects 目录下的松散对象移动到对应的分桶目录
+     * 迁移中途中断时，剩余的对象会在下次执行命令时继续迁移
+     */
+    private static void migrateFlatLayout() {
+        List<String> names = plainFilenamesIn(Repository.OBJECTS_DIR);
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (!isObjectId(name)) {
+                continue;
+            }
+            File target = looseFile(name);
+            target.getParentFile().mkdirs();
+            try {
+                Files.move(join(Repository.OBJECTS_DIR, name).toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw error("迁移对象 %s 失败: %s", name, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 把以 Java 序列化保存的提交和树改写为二进制编码的松散对象，对象ID 不变
+     * 打包的对象也会以松散对象的形式写出，读取时松散对象优先，下次 gc 时替换packfile中的旧条目
+     * 转换中途中断时，格式版本还没有更新，下次执行命令时会继续转换剩余的对象
+     */
+    private static void convertSerializedObjects() {
+        for (String id : allIds()) {
+            Serializable obj;
+            try (InputStream in = openObject(id)) {
+                if (!isSerializedCommitOrTree(in)) {
+                    continue;
+                }
+                obj = (Serializable) new ObjectInputStream(in).readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw error("转换对象 %s 失败: %s", id, e.getMessage());
+            }
+            moveInto(writeTemp(id, encode(obj)), id);
+        }
+    }
+
+    /**
+     * 根据 Java 序列化流开头的类描述判断对象是否是旧格式的提交或树，流保持在开头位置
+     */
+    private static boolean isSerializedCommitOrTree(InputStream in) throws IOException {
+        in.mark(SERIALIZED_PEEK);
+        byte[] head = in.readNBytes(SERIALIZED_PEEK);
+        in.reset();
+        // 流头 AC ED 00 05，然后是 TC_OBJECT、TC_CLASSDESC 和两字节长度的类名
+        if (head.length < 8 || (head[0] & 0xff) != SERIALIZED_MAGIC) {
+            return false;
+        }
+        int length = (head[6] & 0xff) << 8 | (head[7] & 0xff);
+        if (8 + length > head.length) {
+            return false;
+        }
+        String className = new String(head, 8, length, StandardCharsets.UTF_8);
+        return className.equals(Commit.class.getName()) || className.equals(Tree.class.getName());
+    }
+
+    /**
+     * 检查对象是否存在（松散或打包）
+     */
+    static boolean contains(String id) {
+        if (id == null || !isObjectId(id)) {
+            return false;
+        }
+        ensureFormat();
+        return looseFile(id).isFile() || findInPack(id) >= 0;
+    }
+
+    /**
+     * 读取提交或树并转换为指定类型，读取过的对象会被缓存
+     * 根据第一个字节区分二进制编码和旧版本的 Java 序列化
+     * @throws IllegalArgumentException 对象不存在或类型不符
+     */
+    static <T extends Serializable> T read(String id, Class<T> expectedClass) {
+        Serializable cached = objectCache.get(id);
+        if (cached != null) {
+            if (!expectedClass.isInstance(cached)) {
+                throw new IllegalArgumentException("对象类型不符: " + id);
+            }
+            return expectedClass.cast(cached);
+        }
+        try (InputStream in = openObject(id)) {
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            Serializable obj;
+            long size;
+            if (first == Commit.CODEC_TYPE || first == Tree.CODEC_TYPE) {
+                byte[] data = in.readAllBytes();
+                obj = first == Commit.CODEC_TYPE ? Commit.decode(id, data) : Tree.decode(id, data);
+                size = data.length;
+            } else if (first == SERIALIZED_MAGIC) {
+                CountingInputStream counter = new CountingInputStream(in);
+                obj = (Serializable) new ObjectInputStream(counter).readObject();
+                size = counter.count;
+            } else {
+                throw new IllegalArgumentException("对象类型不符: " + id);
+            }
+            T result = expectedClass.cast(obj);
+            objectCache.put(id, result, size);
+            return result;
+        } catch (IOException | ClassCastException | ClassNotFoundException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * 记录读取字节数的输入流，用来估算旧格式对象反序列化后的大小
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count += 1;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 以松散对象的方式写入对象，对象已存在时跳过（对象按内容寻址，内容必然相同）
+     * 先写入临时文件再原子重命名，多个线程同时写入同一对象也是安全的
+     */
+    static void write(String id, Serializable obj) {
+        if (contains(id)) {
+            return;
+        }
+        publish(writeTemp(id, encode(obj)), id);
+    }
+
+    /**
+     * 提交和树的二进制编码
+     */
+    private static byte[] encode(Serializable obj) {
+        if (obj instanceof Commit) {
+            return ((Commit) obj).encode();
+        }
+        if (obj instanceof Tree) {
+            return ((Tree) obj).encode();
+        }
+        throw new IllegalArgumentException("不支持的对象类型: " + obj.getClass().getName());
+    }
+
+    /**
+     * 把对象内容压缩写入一个新的临时文件
+     */
+    private static File writeTemp(String id, byte[] data) {
+        File temp = newTempFile();
+        try (OutputStream out = openTempOutput(temp)) {
+            out.write(data);
+        } catch (IOException e) {
+            temp.delete();
+            throw error("写入对象 %s 失败: %s", id, e.getMessage());
+        }
+        return temp;
+    }
+
+    /**
+     * 读取 Blob 的全部内容，读取过的内容会被缓存，调用方不能修改返回的数组
+     */
+    static byte[] readBlob(String id) {
+        byte[] cached = blobCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        try (InputStream in = openObject(id)) {
+            long size = readBlobHeader(in);
+            byte[] content;
+            if (size < 0) {
+                content = legacyBlobContent(in);
+            } else {
+                if (size > Integer.MAX_VALUE - 8) {
+                    throw error("文件过大，无法读入内存: %s", id);
+                }
+                content = in.readNBytes((int) size);
+                if (content.length != size) {
+                    throw error("对象 %s 已损坏", id);
+                }
+            }
+            blobCache.put(id, content, content.length);
+            return content;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * 将 Blob 的内容流式写入 TARGET，创建或覆盖该文件
+     */
+    static void copyBlobTo(String id, File target) {
+        if (target.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (InputStream in = openObject(id);
+             OutputStream out = new FileOutputStream(target)) {
+            long size = readBlobHeader(in);
+            if (size < 0) {
+                out.write(legacyBlobContent(in));
+                return;
+            }
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long remaining = size;
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) {
+                    throw error("对象 %s 已损坏", id);
+                }
+                out.write(buffer, 0, n);
+                remaining -= n;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * 将内存中的内容保存为 Blob
+     * @return Blob 的ID
+     */
+    static String writeBlob(byte[] content) {
+        String id = sha1(content);
+        if (contains(id)) {
+            return id;
+        }
+        File temp = newTempFile();
+        try (OutputStream out = openTempOutput(temp)) {
+            out.write(blobHeader(content.length));
+            out.write(content);
+        } catch (IOException e) {
+            temp.delete();
+            throw error("写入对象 %s 失败: %s", id, e.getMessage());
+        }
+        publish(temp, id);
+        return id;
+    }
+
+    /**
+     * 将文件内容流式保存为 Blob，哈希在写入的同时计算，文件只读取一遍
+     * @return Blob 的ID
+     */
+    static String writeBlob(File source) {
+        File temp = newTempFile();
+        String id;
+        try (OutputStream out = openTempOutput(temp)) {
+            id = streamBlob(source, out);
+        } catch (IOException e) {
+            temp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        publish(temp, id);
+        return id;
+    }
+
+    /**
+     * 流式计算文件内容对应的 Blob ID，不写入对象库
+     */
+    static String hashBlob(File source) {
+        try {
+            return streamBlob(source, null);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * 分块读取 SOURCE，计算内容的 SHA-1；OUT 不为 null 时同时写出带文件头的 Blob
+     */
+    private static String streamBlob(File source, OutputStream out) throws IOException {
+        MessageDigest md = sha1Digest();
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+            long size = in.size();
+            if (out != null) {
+                out.write(blobHeader(size));
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            long remaining = size;
+            while (remaining > 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(CHUNK_SIZE, remaining));
+                int n = in.read(buffer);
+                if (n < 0) {
+                    throw new IOException("文件在读取过程中被修改: " + source);
+                }
+                md.update(buffer.array(), 0, n);
+                if (out != null) {
+                    out.write(buffer.array(), 0, n);
+                }
+                remaining -= n;
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    private static byte[] blobHeader(long size) {
+        return ("blob " + size + "\0").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 读取 Blob 文件头并返回内容长度；如果是旧版本以 Java 序列化保存的 Blob，
+     * 流保持在开头位置并返回 -1
+     */
+    private static long readBlobHeader(InputStream in) throws IOException {
+        in.mark(1);
+        int first = in.read();
+        in.reset();
+        if (first == SERIALIZED_MAGIC) {
+            return -1;
+        }
+        byte[] prefix = in.readNBytes(BLOB_PREFIX.length);
+        if (!Arrays.equals(prefix, BLOB_PREFIX)) {
+            throw new IOException("不是Blob对象");
+        }
+        long size = 0;
+        for (int c = in.read(); c != 0; c = in.read()) {
+            if (c < '0' || c > '9') {
+                throw new IOException("Blob文件头已损坏");
+            }
+            size = size * 10 + (c - '0');
+        }
+        return size;
+    }
+
+    private static byte[] legacyBlobContent(InputStream in) throws IOException {
+        try {
+            Blob blob = (Blob) new ObjectInputStream(in).readObject();
+            return (byte[]) blob.getContent();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("不是Blob对象");
+        }
+    }
+
+    /**
+     * 打开对象内容的输入流，对象可能是松散对象，也可能在packfile中，压缩过的对象会被透明解压
+     */
+    private static InputStream openObject(String id) throws IOException {
+        if (!isObjectId(id)) {
+            throw new IllegalArgumentException("对象不存在: " + id);
+        }
+        ensureFormat();
+        File loose = looseFile(id);
+        if (loose.isFile()) {
+            return decode(new BufferedInputStream(new FileInputStream(loose), CHUNK_SIZE));
+        }
+        long offset = findInPack(id);
+        if (offset < 0) {
+            throw new IllegalArgumentException("对象不存在: " + id);
+        }
+        return openPackEntry(offset);
+    }
+
+    /**
+     * 根据第一个字节判断存储的内容是否经过压缩，必要时套上解压流
+     */
+    private static InputStream decode(InputStream stored) throws IOException {
+        stored.mark(1);
+        int first = stored.read();
+        stored.reset();
+        if (first != ZLIB_MAGIC) {
+            // 旧版本写入的未压缩对象
+            return stored;
+        }
+        return new BufferedInputStream(new InflaterInputStream(stored), CHUNK_SIZE);
+    }
+
+    /**
+     * 打开写入临时文件的压缩输出流，关闭时释放压缩器占用的本地内存
+     */
+    private static OutputStream openTempOutput(File temp) throws IOException {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        OutputStream file = new BufferedOutputStream(new FileOutputStream(temp), CHUNK_SIZE);
+        return new DeflaterOutputStream(file, deflater, CHUNK_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    private static File newTempFile() {
+        try {
+            return File.createTempFile("tmp-", null, Repository.OBJECTS_DIR);
+        } catch (IOException e) {
+            throw error("无法创建临时文件: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * 将写好的临时文件原子地移动到对象ID对应的位置，对象已存在时丢弃临时文件
+     */
+    private static void publish(File temp, String id) {
+        if (contains(id)) {
+            temp.delete();
+            return;
+        }
+        moveInto(temp, id);
+    }
+
+    /**
+     * 将临时文件原子地移动为对象ID对应的松散对象，替换已有的文件
+     */
+    private static void moveInto(File temp, String id) {
+        File file = looseFile(id);
+        file.getParentFile().mkdirs();
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            throw error("写入对象 %s 失败: %s", id, e.getMessage());
+        }
+    }
+
+    /**
+     * 返回对象库中所有对象的ID（松散和打包），按字典序排列
+     */
+    static List<String> allIds() {
+        ensureFormat();
+        Set<String> ids = new TreeSet<>(looseIds());
+        loadPack();
+        for (int i = 0; i < packIndexCount; i++) {
+            ids.add(indexIdAt(i));
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * 所有松散对象的ID，逐个扫描分桶目录
+     */
+    private static List<String> looseIds() {
+        List<String> ids = new ArrayList<>();
+        String[] buckets = Repository.OBJECTS_DIR.list();
+        if (buckets == null) {
+            return ids;
+        }
+        Arrays.sort(buckets);
+        for (String bucket : buckets) {
+            if (bucket.length() != 2) {
+                continue;
+            }
+            List<String> names = plainFilenamesIn(join(Repository.OBJECTS_DIR, bucket));
+            if (names == null) {
+                continue;
+            }
+            for (String name : names) {
+                if (isObjectId(bucket + name)) {
+                    ids.add(bucket + name);
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static boolean isObjectId(String name) {
+        if (name.length() != UID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 将所有松散对象追加到packfile，重建索引并删除已打包的松散对象
+     * packfile 只追加不改写，已打包的对象不会被重复写入，除非同时存在松散对象（格式转换时改写的提交和树），
+     * 这时追加松散对象的内容并替换索引中的条目，旧条目成为packfile中不再被引用的数据；
+     * 能找到合适基准的 Blob 以差异的形式写入，其余对象按存储时的字节（通常已压缩）
+     * 直接在文件之间流式复制，不需要解压
+     * @param history 路径 → 该路径在历史中出现过的 Blob ID（从旧到新），用于挑选差异基准
+     * @return 本次打包的对象数量
+     */
+    static int repack(Map<String, List<String>> history) {
+        ensureFormat();
+        List<String> loose = looseIds();
+        if (loose.isEmpty()) {
+            return 0;
+        }
+        loadPack();
+        // 读出旧索引中的全部条目
+        TreeMap<String, Long> entries = new TreeMap<>();
+        for (int i = 0; i < packIndexCount; i++) {
+            entries.put(indexIdAt(i), packIndex.getLong(indexEntryPosition(i) + RAW_ID_LENGTH));
+        }
+        Map<String, DeltaChoice> deltas;
+        try {
+            deltas = chooseDeltas(new HashSet<>(loose), entries.keySet(), history);
+        } catch (IOException e) {
+            throw error("计算差异失败: %s", e.getMessage());
+        }
+        closePack();
+
+        PACK_DIR.mkdirs();
+        try (FileChannel out = FileChannel.open(PACK_FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            int version = PACK_VERSION;
+            if (out.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.put(PACK_MAGIC).putInt(PACK_VERSION).flip();
+                writeFully(out, header, 0);
+            } else {
+                // 继续沿用已有packfile的版本
+                version = readPackVersion(out);
+            }
+            long position = out.size();
+            for (String id : loose) {
+                DeltaChoice delta = deltas.get(id);
+                if (delta != null && version > 1) {
+                    ByteBuffer entry = ByteBuffer.allocate(entryHeaderSize(version) + RAW_ID_LENGTH
+                            + delta.payload.length);
+                    entry.put(TYPE_DELTA).putLong(delta.payload.length).put(toRawId(delta.baseId));
+                    entry.put(delta.payload).flip();
+                    writeFully(out, entry, position);
+                    entries.put(id, position);
+                    position += entry.capacity();
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(looseFile(id).toPath(), StandardOpenOption.READ)) {
+                    long length = in.size();
+                    ByteBuffer header = ByteBuffer.allocate(entryHeaderSize(version));
+                    header.put(TYPE_FULL);
+                    if (version == 1) {
+                        if (length > Integer.MAX_VALUE) {
+                            throw error("对象 %s 过大，旧版本packfile无法保存", id);
+                        }
+                        header.putInt((int) length);
+                    } else {
+                        header.putLong(length);
+                    }
+                    header.flip();
+                    writeFully(out, header, position);
+                    long copied = 0;
+                    while (copied < length) {
+                        copied += out.transferFrom(in, position + header.capacity() + copied, length - copied);
+                    }
+                    entries.put(id, position);
+                    position += header.capacity() + length;
+                }
+            }
+            // 先确保packfile落盘，再发布引用它的新索引
+            out.force(true);
+        } catch (IOException e) {
+            throw error("写入packfile失败: %s", e.getMessage());
+        }
+        writePackIndex(entries);
+
+        for (String id : loose) {
+            File file = looseFile(id);
+            file.delete();
+            // 分桶目录清空后一并删除
+            String[] rest = file.getParentFile().list();
+            if (rest != null && rest.length == 0) {
+                file.getParentFile().delete();
+            }
+        }
+        return loose.size();
+    }
+
+    /**
+     * 一个对象选定的差异基准，PAYLOAD 为压缩后的差异
+     */
+    private static class DeltaChoice {
+        private final String baseId;
+        private final byte[] payload;
+        private final int depth;
+
+        DeltaChoice(String baseId, byte[] payload, int depth) {
+            this.baseId = baseId;
+            this.payload = payload;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * 为待打包的 Blob 挑选差异基准
+     *
+     * 按路径逐个处理历史中的版本，候选基准是同一路径上之前的 DELTA_WINDOW 个版本，
+     * 按大小与目标的接近程度依次尝试，保留压缩后最小、且小于目标完整存储大小的差异
+     * 候选基准必须已在packfile中或已在本轮确定了存储方式，因此差异之间不会形成环
+     * @param loose 待打包的松散对象
+     * @param packed 已在packfile中的对象
+     * @return 对象ID → 选定的差异，不在其中的对象完整保存
+     */
+    private static Map<String, DeltaChoice> chooseDeltas(Set<String> loose, Set<String> packed,
+                                                       Map<String, List<String>> history) throws IOException {
+        Map<String, DeltaChoice> deltas = new HashMap<>();
+        // 本轮已确定存储方式的对象及其差异链深度（完整保存为 0）
+        Map<String, Integer> decided = new HashMap<>();
+        Map<String, Long> sizes = new HashMap<>();
+        // 只缓存最近用到的几个对象的内容，足够覆盖一个窗口
+        LinkedHashMap<String, byte[]> contents = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > DELTA_WINDOW + 1;
+            }
+        };
+        for (List<String> versions : history.values()) {
+            for (int i = 0; i < versions.size(); i++) {
+                String id = versions.get(i);
+                if (!loose.contains(id) || packed.contains(id) || decided.containsKey(id)) {
+                    continue;
+                }
+                long size = sizes.computeIfAbsent(id, ObjectStore::blobSize);
+                decided.put(id, 0);
+                if (size < 0 || size > MAX_DELTA_OBJECT_SIZE) {
+                    continue;
+                }
+                List<String> candidates = new ArrayList<>();
+                for (int j = Math.max(0, i - DELTA_WINDOW); j < i; j++) {
+                    String candidate = versions.get(j);
+                    if (!candidate.equals(id) && !candidates.contains(candidate)
+                            && (packed.contains(candidate) || decided.containsKey(candidate))) {
+                        candidates.add(candidate);
+                    }
+                }
+                candidates.sort(Comparator.comparingLong(c ->
+                        Math.abs(sizes.computeIfAbsent(c, ObjectStore::blobSize) - size)));
+
+                byte[] target = null;
+                DeltaChoice best = null;
+                long bestSize = looseFile(id).length();
+                for (String candidate : candidates) {
+                    long baseSize = sizes.get(candidate);
+                    // 大小相差过多的版本很难产生有用的差异
+                    if (baseSize < 0 || Math.abs(baseSize - size) >= Math.max(baseSize, size) / 2 + 1) {
+                        continue;
+                    }
+                    int depth = decided.containsKey(candidate)
+                            ? decided.get(candidate) : packedDepth(findInPack(candidate));
+                    if (depth >= MAX_DELTA_DEPTH) {
+                        continue;
+                    }
+                    if (target == null) {
+                        target = objectContent(id, contents);
+                    }
+                    byte[] payload = deflate(Delta.encode(objectContent(candidate, contents), target));
+                    if (payload.length < bestSize) {
+                        best = new DeltaChoice(candidate, payload, depth + 1);
+                        bestSize = payload.length;
+                    }
+                }
+                if (best != null) {
+                    deltas.put(id, best);
+                    decided.put(id, best.depth);
+                }
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Blob 的内容长度，不是 Blob（或是旧格式的 Blob）时返回 -1
+     */
+    private static long blobSize(String id) {
+        try (InputStream in = openObject(id)) {
+            return readBlobHeader(in);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] objectContent(String id, Map<String, byte[]> contents) throws IOException {
+        byte[] content = contents.get(id);
+        if (content == null) {
+            try (InputStream in = openObject(id)) {
+                content = in.readAllBytes();
+            }
+            contents.put(id, content);
+        }
+        return content;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw error("压缩失败: %s", e.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 写入索引文件：文件头、fan-out 表、按ID排序的 (ID, 偏移量) 记录
+     * 先写临时文件再原子替换，避免读者看到写了一半的索引
+     */
+    private static void writePackIndex(SortedMap<String, Long> entries) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + FANOUT_SIZE
+                + entries.size() * INDEX_ENTRY_SIZE);
+        buffer.put(INDEX_MAGIC).putInt(INDEX_VERSION);
+        int[] fanout = new int[256];
+        for (String id : entries.keySet()) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        int total = 0;
+        for (int count : fanout) {
+            total += count;
+            buffer.putInt(total);
+        }
+        for (Map.Entry<String, Long> entry : entries.entrySet()) {
+            buffer.put(toRawId(entry.getKey())).putLong(entry.getValue());
+        }
+        File temp = join(PACK_DIR, "objects.idx.tmp");
+        writeContents(temp, buffer.array());
+        try {
+            Files.move(temp.toPath(), PACK_INDEX_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("写入packfile索引失败: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * 映射索引文件并打开packfile，仅在首次需要时执行
+     */
+    private static synchronized void loadPack() {
+        if (packLoaded) {
+            return;
+        }
+        packLoaded = true;
+        if (!PACK_INDEX_FILE.isFile() || !PACK_FILE.isFile()) {
+            return;
+        }
+        packIndexStat = Index.stat(PACK_INDEX_FILE);
+        try (FileChannel indexChannel = FileChannel.open(PACK_INDEX_FILE.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            byte[] magic = new byte[INDEX_MAGIC.length];
+            index.get(0, magic);
+            if (!Arrays.equals(magic, INDEX_MAGIC) || index.getInt(INDEX_MAGIC.length) != INDEX_VERSION) {
+                throw error("packfile索引格式错误");
+            }
+            packIndex = index;
+            packIndexCount = index.getInt(HEADER_SIZE + FANOUT_SIZE - 4);
+            packChannel = FileChannel.open(PACK_FILE.toPath(), StandardOpenOption.READ);
+            packVersion = readPackVersion(packChannel);
+        } catch (IOException e) {
+            throw error("读取packfile索引失败: %s", e.getMessage());
+        }
+    }
+
+    private static int readPackVersion(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        byte[] magic = new byte[PACK_MAGIC.length];
+        header.flip();
+        header.get(magic);
+        int version = header.getInt();
+        if (!Arrays.equals(magic, PACK_MAGIC) || version < 1 || version > PACK_VERSION) {
+            throw new IOException("packfile格式错误");
+        }
+        return version;
+    }
+
+    /**
+     * 条目头的长度：1 字节类型 + 内容长度（版本 1 为 int，之后为 long）
+     */
+    private static int entryHeaderSize(int version) {
+        return version == 1 ? 1 + 4 : 1 + 8;
+    }
+
+    private static void closePack() {
+        try {
+            if (packChannel != null) {
+                packChannel.close();
+            }
+        } catch (IOException e) {
+            // 只读通道，关闭失败不影响数据
+        }
+        packIndex = null;
+        packIndexCount = 0;
+        packChannel = null;
+        packLoaded = false;
+        packIndexStat = null;
+    }
+
+    /**
+     * packfile 在加载之后被其他进程重新打包过时关闭它，下次查询时重新加载
+     * 对象内容不会改变，对象缓存不需要清空
+     */
+    static synchronized void refresh() {
+        if (!packLoaded) {
+            return;
+        }
+        boolean exists = PACK_INDEX_FILE.isFile();
+        if (exists != (packIndexStat != null)
+                || exists && !Index.stat(PACK_INDEX_FILE).sameFile(packIndexStat)) {
+            closePack();
+        }
+    }
+
+    /**
+     * 在索引中二分查找对象
+     * @return 对象在packfile中的偏移量，不存在时返回 -1
+     */
+    private static long findInPack(String id) {
+        loadPack();
+        if (packIndexCount == 0) {
+            return -1;
+        }
+        byte[] target = toRawId(id);
+        int first = target[0] & 0xff;
+        int low = first == 0 ? 0 : packIndex.getInt(HEADER_SIZE + (first - 1) * 4);
+        int high = packIndex.getInt(HEADER_SIZE + first * 4) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareRawId(indexEntryPosition(mid), target);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return packIndex.getLong(indexEntryPosition(mid) + RAW_ID_LENGTH);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * packfile 中一个条目的头部信息
+     */
+    private static class PackEntry {
+        private byte type;
+        private long length;
+        /** 差异条目的基准对象ID */
+        private String baseId;
+        /** 条目内容在packfile中的起始位置 */
+        private long dataOffset;
+    }
+
+    private static PackEntry readPackEntry(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(entryHeaderSize(packVersion));
+        readFully(packChannel, header, offset);
+        header.flip();
+        PackEntry entry = new PackEntry();
+        entry.type = header.get();
+        entry.length = packVersion == 1 ? header.getInt() : header.getLong();
+        entry.dataOffset = offset + entryHeaderSize(packVersion);
+        if (entry.type == TYPE_DELTA) {
+            byte[] raw = new byte[RAW_ID_LENGTH];
+            ByteBuffer base = ByteBuffer.wrap(raw);
+            readFully(packChannel, base, entry.dataOffset);
+            entry.baseId = toHex(raw);
+            entry.dataOffset += RAW_ID_LENGTH;
+        } else if (entry.type != TYPE_FULL) {
+            throw new IOException("未知的packfile条目类型: " + entry.type);
+        }
+        return entry;
+    }
+
+    /**
+     * 打开packfile中指定偏移量处对象内容的输入流，差异条目会先还原出完整内容
+     */
+    private static InputStream openPackEntry(long offset) throws IOException {
+        PackEntry entry = readPackEntry(offset);
+        InputStream payload = new BufferedInputStream(
+                new ChannelRangeInputStream(packChannel, entry.dataOffset, entry.length), CHUNK_SIZE);
+        if (entry.type == TYPE_FULL) {
+            return decode(payload);
+        }
+        byte[] delta;
+        try (InputStream in = new InflaterInputStream(payload)) {
+            delta = in.readAllBytes();
+        }
+        try {
+            return new ByteArrayInputStream(Delta.apply(deltaBase(entry.baseId), delta));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("差异对象已损坏: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 读取差异的基准对象，优先从缓存中获取
+     */
+    private static byte[] deltaBase(String id) throws IOException {
+        byte[] cached = baseCache.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] content;
+        try (InputStream in = openObject(id)) {
+            content = in.readAllBytes();
+        }
+        baseCache.put(id, content, content.length);
+        return content;
+    }
+
+    /**
+     * packfile 中条目的差异链深度，完整对象为 0
+     */
+    private static int packedDepth(long offset) throws IOException {
+        int depth = 0;
+        PackEntry entry = readPackEntry(offset);
+        while (entry.type == TYPE_DELTA) {
+            depth += 1;
+            long baseOffset = findInPack(entry.baseId);
+            if (baseOffset < 0) {
+                throw new IOException("差异基准不存在: " + entry.baseId);
+            }
+            entry = readPackEntry(baseOffset);
+        }
+        return depth;
+    }
+
+    /**
+     * 读取文件通道中一段区间的输入流，使用按位置读取，不改变通道的当前位置，
+     * 因此多个线程可以同时从同一个packfile读取
+     */
+    private static class ChannelRangeInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        ChannelRangeInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("packfile意外结束");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+    }
+
+    private static int indexEntryPosition(int i) {
+        return HEADER_SIZE + FANOUT_SIZE + i * INDEX_ENTRY_SIZE;
+    }
+
+    private static String indexIdAt(int i) {
+        byte[] raw = new byte[RAW_ID_LENGTH];
+        packIndex.get(indexEntryPosition(i), raw);
+        return toHex(raw);
+    }
+
+    private static int compareRawId(int position, byte[] target) {
+        for (int i = 0; i < RAW_ID_LENGTH; i++) {
+            int cmp = Integer.compare(packIndex.get(position + i) & 0xff, target[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private static byte[] toRawId(String id) {
+        byte[] raw = new byte[RAW_ID_LENGTH];
+        for (int i = 0; i < RAW_ID_LENGTH; i++) {
+            raw[i] = (byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16);
+        }
+        return raw;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("packfile意外结束");
+            }
+            position += n;
+        }
+    }
+}
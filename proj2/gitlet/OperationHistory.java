@@ -1,16 +1,36 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import static gitlet.Utils.*;
 
 /**
  * 操作历史记录类，用于支持undo功能
- * 记录每一步操作的详细信息，以便能够撤销操作
+ *
+ * 历史保存在只追加的日志文件（.gitlet/undo_journal）中，每条记录只包含撤销所需的最少信息：
+ * 1. 参数：分支名、操作前的提交ID等字符串
+ * 2. 暂存区变化：只记录被操作修改过的条目在操作前的值，而不是整个暂存区
+ * 3. 文件：路径 → Blob ID，文件内容保存在对象库中
+ *
+ * 记录的格式为 [长度][内容][长度][MAGIC]，尾部重复长度，因此可以从文件末尾直接读取或截掉最后一条记录，
+ * 追加和撤销的开销与历史长度无关
+ * 日志最多保留 gitlet.undo.depth（默认 100）条记录，超过两倍时一次性丢弃最旧的记录
  */
 public class OperationHistory implements Serializable {
+    /** 与旧版本的类保持一致，以便读取旧的 operation_history 文件 */
+    private static final long serialVersionUID = 6986247106020427646L;
+
     /**
      * 操作类型枚举
      */
@@ -19,100 +39,378 @@ public class OperationHistory implements Serializable {
     }
 
     /**
-     * 单个操作记录
+     * 旧版本 operation_history 文件中的操作记录，只在迁移到新日志时读取
      */
     public static class OperationRecord implements Serializable {
+        private static final long serialVersionUID = 2519804899547084736L;
+
         private OperationType type;
         private Map<String, Object> parameters;
         private Object data; // 用于存储操作相关的数据
         private Date timestamp;
+    }
 
-        public OperationRecord(OperationType type, Map<String, Object> parameters, Object data) {
+    /**
+     * 日志中的一条操作记录
+     */
+    public static class Operation {
+        /** 暂存区中被标记删除的文件在 staging 中的取值 */
+        static final String STAGED_REMOVAL = "";
+
+        private final OperationType type;
+        private final long timestamp;
+        private final Map<String, String> parameters;
+        /** 操作前暂存区中被修改条目的值，null 表示该条目原本不存在 */
+        private final Map<String, String> staging;
+        /** 为 true 时 staging 是操作前完整的暂存区（从旧版本迁移的记录） */
+        private final boolean stagingSnapshot;
+        /** 撤销时需要恢复的文件：路径 → Blob ID */
+        private final Map<String, String> files;
+
+        private Operation(OperationType type, long timestamp, Map<String, String> parameters,
+                          Map<String, String> staging, boolean stagingSnapshot, Map<String, String> files) {
             this.type = type;
+            this.timestamp = timestamp;
             this.parameters = parameters;
-            this.data = data;
-            this.timestamp = new Date();
+            this.staging = staging;
+            this.stagingSnapshot = stagingSnapshot;
+            this.files = files;
         }
 
         public OperationType getType() {
             return type;
         }
 
-        public Map<String, Object> getParameters() {
-            return parameters;
+        public String getParameter(String name) {
+            return parameters.get(name);
         }
 
-        public Object getData() {
-            return data;
+        public Date getTimestamp() {
+            return new Date(timestamp);
         }
 
-        public Date getTimestamp() {
-            return timestamp;
+        /**
+         * 需要恢复的文件：路径 → Blob ID
+         */
+        public Map<String, String> getFiles() {
+            return files;
+        }
+
+        /**
+         * 把操作后的暂存区还原为操作前的状态
+         * @param current 当前（操作后）的暂存区
+         */
+        public Map<String, String> restoreStaging(Map<String, String> current) {
+            Map<String, String> result = stagingSnapshot ? new HashMap<>() : new HashMap<>(current);
+            for (Map.Entry<String, String> entry : staging.entrySet()) {
+                if (entry.getValue() == null) {
+                    result.remove(entry.getKey());
+                } else {
+                    result.put(entry.getKey(), entry.getValue().equals(STAGED_REMOVAL) ? null : entry.getValue());
+                }
+            }
+            return result;
         }
     }
 
-    private static final File OPERATION_HISTORY_FILE = join(Repository.GITLET_DIR, "operation_history");
-    
+    private static final File LEGACY_HISTORY_FILE = join(Repository.GITLET_DIR, "operation_history");
+    private static final File JOURNAL_FILE = join(Repository.GITLET_DIR, "undo_journal");
+    private static final int MAGIC = 0x554e444f; // "UNDO"
+    private static final int DEFAULT_DEPTH = 100;
+
+    /** 旧版本的历史记录，只在迁移时使用 */
     private Deque<OperationRecord> history;
-    
-    public OperationHistory() {
-        this.history = new ArrayDeque<>();
-    }
-    
+
     /**
-     * 记录操作
+     * 记录操作，必须在暂存区保存之后调用
+     * @param parameters 撤销时需要的参数
+     * @param stagingBefore 操作前的暂存区，操作不修改暂存区时为 null
+     * @param files 撤销时需要恢复的文件（路径 → Blob ID），没有时为 null
      */
-    public void recordOperation(OperationType type, Map<String, Object> parameters, Object data) {
-        OperationRecord record = new OperationRecord(type, parameters, data);
-        history.push(record);
-        save();
+    public void recordOperation(OperationType type, Map<String, String> parameters,
+                                Map<String, String> stagingBefore, Map<String, String> files) {
+        Map<String, String> staging = new HashMap<>();
+        if (stagingBefore != null) {
+            Map<String, String> stagingAfter = Index.get().getStaged();
+            Set<String> paths = new HashSet<>(stagingBefore.keySet());
+            paths.addAll(stagingAfter.keySet());
+            for (String path : paths) {
+                boolean existed = stagingBefore.containsKey(path);
+                String before = stagingBefore.get(path);
+                if (existed != stagingAfter.containsKey(path) || !Objects.equals(before, stagingAfter.get(path))) {
+                    staging.put(path, !existed ? null : before == null ? Operation.STAGED_REMOVAL : before);
+                }
+            }
+        }
+        append(new Operation(type, System.currentTimeMillis(), parameters, staging, false,
+                files == null ? new HashMap<>() : files));
     }
 
     public void invalidOperation() {
-        OperationRecord record = new OperationRecord(OperationType.NONE, null, null);
-        history.push(record);
-        save();
+        append(new Operation(OperationType.NONE, System.currentTimeMillis(),
+                new HashMap<>(), new HashMap<>(), false, new HashMap<>()));
     }
-    
 
     /**
      * 获取最后一次操作记录
      */
-    public OperationRecord getLastOperation() {
-        if (history.isEmpty()) {
+    public Operation getLastOperation() {
+        if (!JOURNAL_FILE.exists()) {
             return null;
         }
-        return history.peek();
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL_FILE, "r")) {
+            long start = lastFrameStart(journal);
+            if (start < 0) {
+                return null;
+            }
+            journal.seek(start);
+            byte[] payload = new byte[journal.readInt()];
+            journal.readFully(payload);
+            return decode(payload);
+        } catch (IOException e) {
+            throw error("无法读取操作历史: %s", e.getMessage());
+        }
     }
-    
+
     /**
      * 移除最后一次操作记录（用于撤销后）
      */
-    public OperationRecord removeLastOperation() {
-        if (history.isEmpty()) {
-            return null;
+    public void removeLastOperation() {
+        if (!JOURNAL_FILE.exists()) {
+            return;
+        }
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL_FILE, "rw")) {
+            long start = lastFrameStart(journal);
+            if (start >= 0) {
+                Transaction.preserve(JOURNAL_FILE, start);
+                journal.setLength(start);
+            }
+        } catch (IOException e) {
+            throw error("无法写入操作历史: %s", e.getMessage());
         }
-        OperationRecord record = history.pop();
-        save();
-        return record;
     }
-    
+
     /**
-     * 保存操作历史到文件
+     * 打开操作历史，旧版本仓库的 operation_history 文件会被转换为新的日志格式
      */
-    public void save() {
-        if (Repository.GITLET_DIR.exists()) {
-            writeObject(OPERATION_HISTORY_FILE, this);
+    public static OperationHistory load() {
+        OperationHistory operationHistory = new OperationHistory();
+        if (LEGACY_HISTORY_FILE.exists()) {
+            migrate(operationHistory);
         }
+        return operationHistory;
     }
-    
+
+    private static void migrate(OperationHistory operationHistory) {
+        OperationHistory legacy = readObject(LEGACY_HISTORY_FILE, OperationHistory.class);
+        if (legacy.history != null) {
+            // 旧历史以栈的形式保存，最新的记录在最前面
+            Iterator<OperationRecord> oldestFirst = legacy.history.descendingIterator();
+            while (oldestFirst.hasNext()) {
+                operationHistory.append(convert(oldestFirst.next()));
+            }
+        }
+        LEGACY_HISTORY_FILE.delete();
+    }
+
     /**
-     * 从文件加载操作历史
+     * 把旧版本的记录转换为新格式：提交对象替换为提交ID，文件内容写入对象库后替换为 Blob ID
      */
-    public static OperationHistory load() {
-        if (OPERATION_HISTORY_FILE.exists()) {
-            return readObject(OPERATION_HISTORY_FILE, OperationHistory.class);
+    @SuppressWarnings("unchecked")
+    private static Operation convert(OperationRecord record) {
+        Map<String, String> parameters = new HashMap<>();
+        if (record.parameters != null) {
+            for (Map.Entry<String, Object> entry : record.parameters.entrySet()) {
+                if (entry.getValue() != null) {
+                    parameters.put(entry.getKey(), entry.getValue().toString());
+                }
+            }
+        }
+        Map<String, String> staging = new HashMap<>();
+        boolean snapshot = false;
+        Map<String, String> files = new HashMap<>();
+        Object data = record.data;
+        if (record.type == OperationType.ADD && data instanceof Map) {
+            snapshot = true;
+            putSnapshot(staging, (Map<String, String>) data);
+        } else if (record.type == OperationType.RM_BRANCH && data instanceof String) {
+            parameters.put("branchRef", (String) data);
+        } else if (record.type == OperationType.CHECKOUT && data instanceof Map) {
+            putContents(files, (Map<String, byte[]>) data);
+        } else if (data instanceof Map) {
+            Map<String, Object> values = (Map<String, Object>) data;
+            if (values.get("staging") instanceof Map) {
+                snapshot = true;
+                putSnapshot(staging, (Map<String, String>) values.get("staging"));
+            }
+            if (values.get("commit") instanceof Commit) {
+                parameters.put("commitBefore", ((Commit) values.get("commit")).getId());
+            }
+            if (values.get("deletedFilesContent") instanceof Map) {
+                putContents(files, (Map<String, byte[]>) values.get("deletedFilesContent"));
+            }
+            if (values.get("type") != null) {
+                parameters.put("mergeType", values.get("type").toString());
+            }
+            if (values.get("branchName") != null) {
+                parameters.put("branchName", values.get("branchName").toString());
+            }
         }
-        return new OperationHistory();
+        long timestamp = record.timestamp == null ? 0 : record.timestamp.getTime();
+        return new Operation(record.type, timestamp, parameters, staging, snapshot, files);
+    }
+
+    private static void putSnapshot(Map<String, String> staging, Map<String, String> stagingArea) {
+        for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
+            staging.put(entry.getKey(), entry.getValue() == null ? Operation.STAGED_REMOVAL : entry.getValue());
+        }
+    }
+
+    private static void putContents(Map<String, String> files, Map<String, byte[]> contents) {
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            files.put(entry.getKey(), ObjectStore.writeBlob(entry.getValue()));
+        }
+    }
+
+    /**
+     * 保留的记录条数
+     */
+    private static int depth() {
+        return Math.max(1, Integer.getInteger("gitlet.undo.depth", DEFAULT_DEPTH));
+    }
+
+    /**
+     * 在日志末尾追加一条记录，记录数超过保留条数的两倍时丢弃最旧的记录
+     */
+    private void append(Operation operation) {
+        if (!Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        long count;
+        Transaction.preserve(JOURNAL_FILE, JOURNAL_FILE.length());
+        try (RandomAccessFile journal = new RandomAccessFile(JOURNAL_FILE, "rw")) {
+            long first = 0;
+            long last = -1;
+            if (journal.length() > 0) {
+                journal.seek(4);
+                first = journal.readLong();
+                journal.seek(lastFrameStart(journal) + 4);
+                last = journal.readLong();
+            }
+            byte[] payload = encode(last + 1, operation);
+            journal.seek(journal.length());
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 12);
+            DataOutputStream out = new DataOutputStream(frame);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt(payload.length);
+            out.writeInt(MAGIC);
+            journal.write(frame.toByteArray());
+            count = last + 2 - first;
+        } catch (IOException e) {
+            throw error("无法写入操作历史: %s", e.getMessage());
+        }
+        if (count > 2L * depth()) {
+            compact(count - depth());
+        }
+    }
+
+    /**
+     * 丢弃最旧的 DROP 条记录，把剩余的记录写入新文件后替换日志
+     */
+    private void compact(long drop) {
+        try {
+            Transaction.preserve(JOURNAL_FILE, 0);
+            File temp = join(Repository.GITLET_DIR, "undo_journal.tmp");
+            try (RandomAccessFile journal = new RandomAccessFile(JOURNAL_FILE, "r")) {
+                long offset = 0;
+                for (long i = 0; i < drop; i++) {
+                    journal.seek(offset);
+                    offset += journal.readInt() + 12L;
+                }
+                byte[] rest = new byte[(int) (journal.length() - offset)];
+                journal.seek(offset);
+                journal.readFully(rest);
+                Files.write(temp.toPath(), rest);
+            }
+            Files.move(temp.toPath(), JOURNAL_FILE.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw error("无法写入操作历史: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * 最后一条记录的起始位置，日志为空时返回 -1
+     */
+    private static long lastFrameStart(RandomAccessFile journal) throws IOException {
+        long length = journal.length();
+        if (length == 0) {
+            return -1;
+        }
+        journal.seek(length - 8);
+        int payloadLength = journal.readInt();
+        if (journal.readInt() != MAGIC) {
+            throw new IOException("日志已损坏");
+        }
+        return length - 12 - payloadLength;
+    }
+
+    private static byte[] encode(long sequence, Operation operation) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(sequence);
+        out.writeByte(operation.type.ordinal());
+        out.writeLong(operation.timestamp);
+        writeMap(out, operation.parameters);
+        out.writeBoolean(operation.stagingSnapshot);
+        writeMap(out, operation.staging);
+        writeMap(out, operation.files);
+        return bytes.toByteArray();
+    }
+
+    private static Operation decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.readLong();
+        OperationType type = OperationType.values()[in.readUnsignedByte()];
+        long timestamp = in.readLong();
+        Map<String, String> parameters = readMap(in);
+        boolean snapshot = in.readBoolean();
+        Map<String, String> staging = readMap(in);
+        Map<String, String> files = readMap(in);
+        return new Operation(type, timestamp, parameters, staging, snapshot, files);
+    }
+
+    private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeBoolean(entry.getValue() != null);
+            if (entry.getValue() != null) {
+                writeString(out, entry.getValue());
+            }
+        }
+    }
+
+    private static Map<String, String> readMap(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = readString(in);
+            map.put(key, in.readBoolean() ? readString(in) : null);
+        }
+        return map;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * 并行执行工具，所有并行任务共用一个有界的 ForkJoinPool
+ * 线程数由系统属性 gitlet.threads 指定，默认为 CPU 核数，设为 1 时所有任务在调用线程中串行执行
+ */
+class Parallel {
+    private static ForkJoinPool pool;
+
+    /**
+     * 并行使用的线程数
+     */
+    static int threads() {
+        int defaultThreads = Runtime.getRuntime().availableProcessors();
+        return Math.max(1, Integer.getInteger("gitlet.threads", defaultThreads));
+    }
+
+    /**
+     * 共享的线程池，首次使用时创建
+     */
+    static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(threads());
+        }
+        return pool;
+    }
+
+    /**
+     * 对 0 到 n-1 的每个下标执行 action，任务之间的执行顺序不确定
+     * 任一任务抛出的异常会在所有任务结束后重新抛给调用方
+     */
+    static void forEach(int n, IntConsumer action) {
+        if (n <= 1 || threads() == 1) {
+            for (int i = 0; i < n; i++) {
+                action.accept(i);
+            }
+            return;
+        }
+        pool().invoke(new RangeAction(0, n, action));
+    }
+
+    /**
+     * 不断二分下标区间，直到只剩一个下标，让空闲线程可以窃取大文件之外的剩余任务
+     */
+    private static class RangeAction extends RecursiveAction {
+        // RecursiveAction 实现了 Serializable，任务本身不会被序列化
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        RangeAction(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeAction(from, mid, action), new RangeAction(mid, to, action));
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.util.*;
 import static gitlet.OperationHistory.*;
 
@@ -23,76 +23,32 @@ public class Repository {
     public static final File IGNORE = join(CWD, ".ignore");
     public static final File HEAD = join(GITLET_DIR, "HEAD");
     public static final File OPERATION_HISTORY_FILE = join(GITLET_DIR, "operation_history");
+    public static final File FORMAT_FILE = join(GITLET_DIR, "format");
     
-    private static OperationHistory operationHistory = OperationHistory.load();
-    
-    /**
-     * 读取并解析.ignore文件中的忽略规则
-     * @return 包含所有忽略路径的Set集合
-     */
-    private static Set<String> readIgnoreFile() {
-        Set<String> ignorePaths = new HashSet<>();
-        if (IGNORE.exists()) {
-            try {
-                List<String> lines = Files.readAllLines(IGNORE.toPath(), StandardCharsets.UTF_8);
-                for (String line : lines) {
-                    line = line.trim();
-                    if (!line.isEmpty() && !line.startsWith("#")) {
-                        ignorePaths.add(line);
-                    }
-                }
-            } catch (IOException e) {
-                // 如果读取文件时出错，返回空的忽略列表
-                System.err.println("警告：无法读取.ignore文件");
-            }
-        }
-        return ignorePaths;
-    }
+    /** 操作历史在第一次使用时才打开，不涉及撤销的命令不需要读取它 */
+    private static OperationHistory operationHistory;
 
-    /**
-     * 检查文件路径是否应该被忽略
-     * @param filePath 要检查的文件路径
-     * @param ignorePaths 忽略路径集合
-     * @return 如果应该被忽略返回true，否则返回false
-     */
-    private static boolean shouldBeIgnored(String filePath, Set<String> ignorePaths) {
-        // 检查是否明确匹配忽略列表中的路径
-        if (ignorePaths.contains(filePath)) {
-            return true;
+    private static OperationHistory operationHistory() {
+        if (operationHistory == null) {
+            operationHistory = OperationHistory.load();
         }
-        
-        // 检查是否匹配忽略列表中的目录（前缀匹配）
-        for (String ignorePath : ignorePaths) {
-            // 如果ignorePath以/结尾，只匹配目录
-            if (ignorePath.endsWith("/")) {
-                String dirPath = ignorePath.substring(0, ignorePath.length() - 1);
-                // 精确匹配目录或者在目录下的文件/子目录
-                if (filePath.equals(dirPath) || filePath.startsWith(dirPath + "/")) {
-                    return true;
-                }
-            } else {
-                // 对于不以/结尾的规则，精确匹配文件或目录，或者在指定目录下的内容
-                if (filePath.equals(ignorePath) || filePath.startsWith(ignorePath + "/")) {
-                    return true;
-                }
-            }
-        }
-        
-        return false;
+        return operationHistory;
     }
     
     static void init() {
         if (GITLET_DIR.exists()) {
             System.out.println("一个Gitlet版本管理系统已经存在于当前文件夹");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         GITLET_DIR.mkdir();
         OBJECTS_DIR.mkdir();
         REFS_DIR.mkdir();
         HEADS_DIR.mkdir();
+        ObjectStore.initFormat();
+        CommitGraph.create();
 
-        writeObject(STAGING_AREA, new HashMap<String, String>());
+        new Index().save();
         try {HEAD.createNewFile();} catch (IOException e) {throw new RuntimeException(e);}
         try {join(HEADS_DIR, "master").createNewFile();} catch (IOException e) {throw new RuntimeException(e);}
         Commit initial = new Commit(
@@ -100,36 +56,69 @@ public class Repository {
                 null,
                 new Date(0L),
                 "initial commit",
-                new HashMap<>()
+                Tree.update(null, new HashMap<>())
         );
-        File initialCommitFile = join(OBJECTS_DIR, initial.getId());
-        writeObject(initialCommitFile, initial);
-        writeContents(HEAD, "ref: refs/heads/master\n");
-        writeContents(join(HEADS_DIR, "master"), initial.getId());
+        ObjectStore.write(initial.getId(), initial);
+        CommitGraph.add(initial);
+        Transaction.write(HEAD, "ref: refs/heads/master\n");
+        Transaction.write(join(HEADS_DIR, "master"), initial.getId());
 
         // 创建默认的.ignore文件，忽略.git、gitlet、gitlet目录
         writeContents(IGNORE, ".git/\n.gitlet/\ngitlet/");
 
     }
-    // 读取暂存区
-    //@SuppressWarnings("unchecked")
-    private static Map<String, String> readStagingArea() {
-        if (!STAGING_AREA.exists()) {
-            return new HashMap<>();
-        }
-        return readObject(STAGING_AREA, HashMap.class);
+    // 读取暂存区（按路径排序）
+    private static SortedMap<String, String> readStagingArea() {
+        return Index.get().getStaged();
     }
 
-    // 保存暂存区
+    /**
+     * 有序的文件映射中位于目录 DIR 下的部分（不含 DIR 本身）
+     * '0' 是 '/' 的下一个字符，[DIR/, DIR0) 恰好包含所有以 DIR/ 开头的路径，取出这一段不需要遍历其他路径
+     */
+    private static <V> SortedMap<String, V> filesUnder(SortedMap<String, V> files, String dir) {
+        return files.subMap(dir + "/", dir + "0");
+    }
+
+    // 保存暂存区（同时保存 stat 缓存）
     private static void saveStagingArea(Map<String, String> stagingArea) {
-        writeObject(STAGING_AREA, (Serializable) stagingArea);
+        Index.get().saveStaged(stagingArea);
+    }
+
+    /**
+     * 计算工作区文件对应的 Blob 哈希
+     * 文件的 stat 信息与索引中的缓存一致时直接复用缓存的哈希，不读取文件内容
+     * @param save 是否同时把文件内容保存到对象库
+     */
+    private static String hashWorkingFile(File file, String filePath, boolean save) {
+        Index index = Index.get();
+        Index.Stat stat = Index.stat(file);
+        String blobID = hashWorkingFile(index, file, filePath, stat, save);
+        index.record(filePath, stat, blobID);
+        return blobID;
+    }
+
+    /**
+     * 同上，但不修改索引，可以在多个线程中同时调用
+     * @param stat 读取文件内容之前获取的 stat 信息
+     */
+    private static String hashWorkingFile(Index index, File file, String filePath, Index.Stat stat, boolean save) {
+        String cached = index.cachedBlobID(filePath, stat);
+        if (cached != null && (!save || ObjectStore.contains(cached))) {
+            return cached;
+        }
+        // 分块流式读取文件，不把整个文件读入内存
+        return save ? ObjectStore.writeBlob(file) : ObjectStore.hashBlob(file);
     }
     //获取最新提交
-    private static Commit getCurrentCommit() {
+    static Commit getCurrentCommit() {
+        return readCommitFromObjects(getCurrentCommitId());
+    }
+    //获取最新提交的ID
+    private static String getCurrentCommitId() {
         String head = readContentsAsString(HEAD);
         String branchName = head.substring("ref: refs/heads/".length()).trim();
-        String commitHash = readContentsAsString(join(HEADS_DIR, branchName));
-        return readCommitFromObjects(commitHash);
+        return readContentsAsString(join(HEADS_DIR, branchName));
     }
     //获取当前分支
     private static String getCurrentBranch() {
@@ -138,19 +127,24 @@ public class Repository {
     public static void checkInGitlet() {
         if (!GITLET_DIR.exists()) {
             System.out.println("当前文件夹下Gitlet未初始化");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
     }
     public static void ignore(String fileName) {
-        Set<String> ignorePaths = readIgnoreFile();
+        IgnoreMatcher ignore = IgnoreMatcher.get();
         if(fileName == null) {
             System.out.println("忽略规则如下");
-            for(String ignore : ignorePaths) {
-                System.out.println("- " + ignore);
+            for(String pattern : ignore.patterns()) {
+                System.out.println("- " + pattern);
             }
         } else {
-            if(shouldBeIgnored(fileName, ignorePaths)) {
+            String path = Normalization(fileName);
+            boolean isDirectory = path.endsWith("/") || join(CWD, path).isDirectory();
+            if (path.endsWith("/")) {
+                path = path.substring(0, path.length() - 1);
+            }
+            if(ignore.isIgnoredPath(path, isDirectory)) {
                 System.out.println("文件 "+ fileName + "应该被忽略");
             } else {
                 System.out.println("文件 "+ fileName + "不应该被忽略");
@@ -186,19 +180,16 @@ public class Repository {
         Commit currentCommit = getCurrentCommit();
         Map<String, String> stagingArea = readStagingArea();
         
-        // 读取忽略规则
-        Set<String> ignorePaths = readIgnoreFile();
-
         // 处理文件或目录
         if (explicitDirectory) {
             // 明确指定目录，只添加目录中的文件
             File dir = join(CWD, normalizedFileName);
             if (dir.isDirectory() && dir.exists()) {
-                addDirectory(dir, normalizedFileName, currentCommit, stagingArea, ignorePaths);
+                addDirectory(dir, normalizedFileName, currentCommit, stagingArea);
             } else {
                 System.out.println("指定路径不是目录");
-                operationHistory.invalidOperation();
-                System.exit(1);
+                operationHistory().invalidOperation();
+                exit(1);
             }
         } else {
             // 优先处理文件（即使存在同名目录）
@@ -207,11 +198,11 @@ public class Repository {
                 addSingleFile(file, normalizedFileName, currentCommit, stagingArea);
             } else if (file.isDirectory() && file.exists()) {
                 // 只有当同名文件不存在时才添加目录
-                addDirectory(file, normalizedFileName, currentCommit, stagingArea, ignorePaths);
+                addDirectory(file, normalizedFileName, currentCommit, stagingArea);
             } else {
                 System.out.println("文件不存在");
-                operationHistory.invalidOperation();
-                System.exit(1);
+                operationHistory().invalidOperation();
+                exit(1);
             }
         }
         
@@ -219,58 +210,51 @@ public class Repository {
         saveStagingArea(stagingArea);
         
         // 记录操作历史，保存操作前的暂存区状态
-        Map<String, Object> params = new HashMap<>();
+        Map<String, String> params = new HashMap<>();
         params.put("fileName", fileName);
-        operationHistory.recordOperation(OperationHistory.OperationType.ADD, params, stagingBefore);
-    }
-
-    private static void addFileOrDirectory(File file, String filePath, Commit currentCommit,
-                                           Map<String, String> stagingArea, Set<String> ignorePaths) {
-        // 检查文件/目录是否应该被忽略
-        // 对于根目录（filePath为空）不进行忽略检查
-        if (!filePath.isEmpty() && shouldBeIgnored(filePath, ignorePaths)) {
-            return; // 如果应该被忽略，直接返回
-        }
-
-        if (file.isFile()) {
-            // 处理单个文件
-            addSingleFile(file, filePath, currentCommit, stagingArea);
-        } else if (file.isDirectory()) {
-            // 使用addDirectory方法处理目录
-            addDirectory(file, filePath, currentCommit, stagingArea, ignorePaths);
-        }
+        operationHistory().recordOperation(OperationHistory.OperationType.ADD, params, stagingBefore, null);
     }
 
     /**
-     * 递归添加目录中的所有文件
+     * 添加目录中的所有文件
+     * 先遍历目录树收集文件（跳过被忽略的文件和目录），再并行计算哈希、写入 Blob，最后按路径顺序合并到暂存区
      */
     private static void addDirectory(File dir, String dirPath, Commit currentCommit,
-                                    Map<String, String> stagingArea, Set<String> ignorePaths) {
-        // 检查目录是否应该被忽略
-        if (!dirPath.isEmpty() && shouldBeIgnored(dirPath, ignorePaths)) {
+                                    Map<String, String> stagingArea) {
+        IgnoreMatcher ignore = IgnoreMatcher.get();
+        // 对于根目录（dirPath为空）不进行忽略检查
+        if (!dirPath.isEmpty() && ignore.isIgnoredPath(dirPath, true)) {
             return;
         }
-        
-        // 递归处理目录中的所有文件
-        File[] files = dir.listFiles();
-        if (files != null) {
-            for (File subFile : files) {
-                // 跳过.gitlet目录
-                if (subFile.getName().equals(".gitlet") || subFile.getName().equals(".git")) {
-                    continue;
-                }
-                // 构建子文件路径
-                String subFilePath = dirPath.isEmpty() ? subFile.getName() : dirPath + "/" + subFile.getName();
-                addFileOrDirectory(subFile, subFilePath, currentCommit, stagingArea, ignorePaths);
-            }
+        SortedMap<String, File> files = WorkingTree.walk(dir, dirPath, ignore::isIgnored);
+
+        List<String> paths = new ArrayList<>(files.keySet());
+        Index index = Index.get();
+        Index.Stat[] stats = new Index.Stat[paths.size()];
+        String[] blobHashes = new String[paths.size()];
+        Parallel.forEach(paths.size(), i -> {
+            File file = files.get(paths.get(i));
+            stats[i] = Index.stat(file);
+            blobHashes[i] = hashWorkingFile(index, file, paths.get(i), stats[i], true);
+        });
+
+        for (int i = 0; i < paths.size(); i++) {
+            index.record(paths.get(i), stats[i], blobHashes[i]);
+            stageBlob(paths.get(i), blobHashes[i], currentCommit, stagingArea);
         }
     }
 
     private static void addSingleFile(File file, String filePath, Commit currentCommit, Map<String, String> stagingArea) {
-        // 生成当前文件的 Blob
-        Blob newBlob = new Blob(readContents(file));
-        String newBlobHash = newBlob.getID();
+        // 计算当前文件的 Blob 哈希，并保存 Blob 到对象库（如果不存在）
+        String newBlobHash = hashWorkingFile(file, filePath, true);
+        stageBlob(filePath, newBlobHash, currentCommit, stagingArea);
+    }
 
+    /**
+     * 根据文件的新哈希更新暂存区
+     */
+    private static void stageBlob(String filePath, String newBlobHash, Commit currentCommit,
+                                  Map<String, String> stagingArea) {
         // 检查是否与当前提交的文件内容相同
         String currentBlobHash = currentCommit.getFileToBlobID().get(filePath);
         if (newBlobHash.equals(currentBlobHash)) {
@@ -281,30 +265,20 @@ public class Repository {
 
         // 内容不同 → 暂存文件（覆盖旧记录）
         stagingArea.put(filePath, newBlobHash);
-
-        // 保存 Blob 到对象库（如果不存在）
-        saveBlobIfNotExists(newBlob);
-    }
-    
-    private static void saveBlobIfNotExists(Blob blob) {
-        File blobFile = join(OBJECTS_DIR, blob.getID());
-        if (!blobFile.exists()) {
-            writeObject(blobFile, blob);
-        }
     }
     
     private static void clearStagingArea() {
-        writeObject(STAGING_AREA, new HashMap<>());
+        saveStagingArea(new HashMap<>());
     }
 
     private static void saveCommit(Commit newCommit) {
-        File commitFile = join(OBJECTS_DIR, newCommit.getId());
-        writeObject(commitFile, newCommit);
+        ObjectStore.write(newCommit.getId(), newCommit);
+        CommitGraph.add(newCommit);
         // 仅当 HEAD 指向分支时才更新分支引用
         String head = readContentsAsString(HEAD);
         if (head.startsWith("ref: ")) {
             String branchName = getCurrentBranch();
-            writeContents(join(HEADS_DIR, branchName), newCommit.getId());
+            Transaction.write(join(HEADS_DIR, branchName), newCommit.getId());
         }
     }
     public static void commit(String message) {
@@ -313,14 +287,14 @@ public class Repository {
         Map<String, String> stagingBefore = readStagingArea();
         if (message.equals("")) {
             System.out.println("请输入提交信息");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         Map<String, String> stagingArea = readStagingArea();
         if (stagingArea.isEmpty()) {
             System.out.println("提交没有新的内容");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
 
         // 创建新提交（继承当前提交的文件映射，并用暂存区覆盖）
@@ -331,43 +305,31 @@ public class Repository {
         saveCommit(newCommit);
         clearStagingArea();
         
-        // 记录操作历史，保存操作前的暂存区状态和提交信息
-        Map<String, Object> params = new HashMap<>();
+        // 记录操作历史，保存操作前的暂存区状态和提交ID
+        Map<String, String> params = new HashMap<>();
         params.put("message", message);
         params.put("commitId", newCommit.getId());
-        Map<String, Object> commitData = new HashMap<>();
-        commitData.put("staging", stagingBefore);
-        commitData.put("commit", currentCommit);
-        operationHistory.recordOperation(OperationHistory.OperationType.COMMIT, params, commitData);
+        params.put("commitBefore", currentCommit.getId());
+        operationHistory().recordOperation(OperationHistory.OperationType.COMMIT, params, stagingBefore, null);
     }
 
     private static Commit getNewCommit(String message, Commit currentCommit, Map<String, String> stagingArea) {
-        Map<String, String> newFileToBlob = new HashMap<>(currentCommit.getFileToBlobID());
-
-        // 处理暂存区的删除和更新
-        for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
-            String fileName = entry.getKey();
-            String blobHash = entry.getValue();
-            if (blobHash == null) {
-                newFileToBlob.remove(fileName); // 删除文件
-            } else {
-                newFileToBlob.put(fileName, blobHash); // 更新或新增
-            }
-        }
+        // 在父提交的树上应用暂存区的删除和更新，只重写被修改文件所在的目录
+        String newTreeID = Tree.update(currentCommit.getTreeID(), stagingArea);
 
         return new Commit(
                 currentCommit.getId(), // parent1
                 null,                 // parent2
                 new Date(),
                 message,
-                newFileToBlob
+                newTreeID
         );
     }
 
     public static void rm(String fileName) {
         checkInGitlet();
 
-        Map<String, String> stagingArea = readStagingArea();
+        SortedMap<String, String> stagingArea = readStagingArea();
         Commit currentCommit = getCurrentCommit();
 
         // 规范化文件名（去除./前缀）
@@ -376,60 +338,45 @@ public class Repository {
         File file = join(CWD, normalizedFileName);
         if (!file.exists()) {
             System.out.println("文件不存在");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         
         // 检查目录中是否有被跟踪的文件
-        boolean hasTrackedFiles = false;
+        boolean hasTrackedFiles;
         if (file.isDirectory()) {
-            for (String filePath : currentCommit.getFileToBlobID().keySet()) {
-                if (filePath.startsWith(normalizedFileName + "/")) {
-                    hasTrackedFiles = true;
-                    break;
-                }
-            }
-            if (!hasTrackedFiles) {
-                for (String filePath : stagingArea.keySet()) {
-                    if (filePath.startsWith(normalizedFileName + "/")) {
-                        hasTrackedFiles = true;
-                        break;
-                    }
-                }
-            }
+            hasTrackedFiles = !filesUnder(currentCommit.getFileToBlobID(), normalizedFileName).isEmpty()
+                    || !filesUnder(stagingArea, normalizedFileName).isEmpty();
         } else {
             hasTrackedFiles = stagingArea.containsKey(normalizedFileName) || currentCommit.getFileToBlobID().containsKey(normalizedFileName);
         }
         
         if (!hasTrackedFiles) {
             System.out.println(file.getName() + "文件未被追踪");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         
-        // 保存被删除文件的内容，用于撤销操作
-        Map<String, byte[]> deletedFilesContent = new HashMap<>();
-        collectFileContent(normalizedFileName, currentCommit, deletedFilesContent);
+        // 记录被删除文件的 Blob ID，用于撤销操作，文件内容已经在对象库中
+        Map<String, String> deletedFiles = new HashMap<>();
+        collectFileContent(normalizedFileName, currentCommit, deletedFiles);
         
         removeFileOrDirectory(normalizedFileName, stagingArea, currentCommit);
         saveStagingArea(stagingArea);
         
-        // 记录操作历史，保存操作前的暂存区状态和被删除的文件内容
-        Map<String, Object> params = new HashMap<>();
+        // 记录操作历史，保存被删除的文件；撤销时暂存区保持删除后的状态
+        Map<String, String> params = new HashMap<>();
         params.put("fileName", fileName);
-        Map<String, Object> rmData = new HashMap<>();
-        rmData.put("staging", readStagingArea());
-        rmData.put("deletedFilesContent", deletedFilesContent);
-        operationHistory.recordOperation(OperationHistory.OperationType.RM, params, rmData);
+        operationHistory().recordOperation(OperationHistory.OperationType.RM, params, null, deletedFiles);
     }
 
     /**
-     * 收集文件内容，用于撤销删除操作
+     * 收集被删除文件在当前提交中的 Blob ID，用于撤销删除操作
      * @param fileName 文件或目录名
      * @param currentCommit 当前提交
-     * @param fileContents 用于存储文件内容的Map
+     * @param fileContents 文件路径 → Blob ID
      */
-    private static void collectFileContent(String fileName, Commit currentCommit, Map<String, byte[]> fileContents) {
+    private static void collectFileContent(String fileName, Commit currentCommit, Map<String, String> fileContents) {
         File file = join(CWD, fileName);
         
         if (file.isDirectory()) {
@@ -451,8 +398,7 @@ public class Repository {
             // 从当前提交中获取文件内容
             String blobId = currentCommit.getFileToBlobID().get(fileName);
             if (blobId != null) {
-                Blob blob = readObject(join(OBJECTS_DIR, blobId), Blob.class);
-                fileContents.put(fileName, (byte[]) blob.getContent());
+                fileContents.put(fileName, blobId);
             }
         }
     }
@@ -514,60 +460,23 @@ public class Repository {
     public static void log() {
         checkInGitlet();
 
-        Commit currentCommit = getCurrentCommit();
-        while (currentCommit != null) {
-            if(currentCommit.getTimestamp().equals(new Date(0L))) {
+        // 沿提交图遍历，只有需要打印文件列表时才读取提交对象
+        CommitGraph.Node node = CommitGraph.get(getCurrentCommitId());
+        while (node != null) {
+            if (node.getTimestamp() == 0L) {
                 break;
             }
-            System.out.println("===");
-            System.out.println("commit " + currentCommit.getId());
-
-            // 打印 Merge 信息（如果存在）
-            if (currentCommit.getParent2ID() != null) {
-                String parent1Prefix = currentCommit.getParent1ID().substring(0, 7);
-                String parent2Prefix = currentCommit.getParent2ID().substring(0, 7);
-                System.out.println("Merge: " + parent1Prefix + " " + parent2Prefix);
-            }
-
-            System.out.println("Date: " + currentCommit.getTimestamp());
-            System.out.println(currentCommit.getMessage());
-
-            // 【新增/优化】打印文件列表（清晰展示该提交包含的文件）
-            if (!currentCommit.getFileToBlobID().isEmpty()) {
-                System.out.println("Files Tracked:");
-                for (String fileName : currentCommit.getFileToBlobID().keySet()) {
-                    System.out.println("  - " + fileName);
-                }
-            }
-
-            System.out.println();
+            printCommit(readCommitFromObjects(node.getId()));
 
             // 仅沿着 Parent 1 向上遍历
-            if (currentCommit.getParent1ID() != null) {
-                currentCommit = readCommitFromObjects(currentCommit.getParent1ID());
-            } else {
-                currentCommit = null;
-            }
+            node = CommitGraph.get(node.getParent1ID());
         }
     }
     public static void globalLog() {
         checkInGitlet();
-        File[] objects = OBJECTS_DIR.listFiles();
-
-        if (objects == null) return;
-
-        for (File objectFile : objects) {
-            // 仅处理 Commit 对象（通过尝试反序列化）
-            try {
-                // 尝试读取对象并检查是否为 Commit 实例
-                Commit obj = readCommitFromObjects(objectFile.getName());
-                if (obj != null) {
-                    // 打印 Commit 信息（复用 printCommit 逻辑）
-                    printCommit(obj);
-                }
-            } catch (Exception e) {
-                // 忽略非 Commit 对象或读取错误
-            }
+        // 提交图中记录了所有提交，不需要逐个尝试反序列化对象库中的对象
+        for (CommitGraph.Node node : CommitGraph.all()) {
+            printCommit(readCommitFromObjects(node.getId()));
         }
     }
 
@@ -575,36 +484,161 @@ public class Repository {
     public static void find(String message){
         checkInGitlet();
 
-        Set<String> printedCommits = new HashSet<>();
-         boolean found = false;
+        boolean found = false;
         
-        // 遍历所有对象文件查找提交
-        File[] objects = OBJECTS_DIR.listFiles();
-        if (objects != null) {
-            for (File objectFile : objects) {
-                try {
-                    Commit commit = readObject(objectFile, Commit.class);
-                    if (commit != null && 
-                        commit.getMessage().contains(message) && 
-                        !printedCommits.contains(commit.getId())) {
-                        printCommit(commit);
-                        printedCommits.add(commit.getId());
-                        found = true;
-                    }
-                } catch (Exception e) {
-                    // 不是提交对象，跳过
-                    continue;
-                }
-            }
+        // 通过提交信息索引查找，只读取匹配的提交
+        for (CommitGraph.Node node : MessageIndex.find(message)) {
+            printCommit(readCommitFromObjects(node.getId()));
+            found = true;
         }
         
         if (!found) {
             System.out.println("没有找到包含该信息的提交。");
-            System.exit(1);
+            exit(1);
         }
     }
 
 
+    /**
+     * 将松散对象打包进packfile，减少对象库中的文件数量
+     */
+    public static void gc() {
+        checkInGitlet();
+        int packed = ObjectStore.repack(blobHistory());
+        System.out.println("已打包 " + packed + " 个对象");
+    }
+
+    /**
+     * 按提交顺序收集每个路径上出现过的 Blob，供打包时挑选差异基准
+     * @return 路径 → Blob ID 列表（从旧到新，不重复）
+     */
+    private static Map<String, List<String>> blobHistory() {
+        Map<String, LinkedHashSet<String>> versions = new TreeMap<>();
+        for (CommitGraph.Node node : CommitGraph.all()) {
+            Commit commit = readCommitFromObjects(node.getId());
+            for (Map.Entry<String, String> entry : commit.getFileToBlobID().entrySet()) {
+                versions.computeIfAbsent(entry.getKey(), k -> new LinkedHashSet<>()).add(entry.getValue());
+            }
+        }
+        Map<String, List<String>> history = new TreeMap<>();
+        for (Map.Entry<String, LinkedHashSet<String>> entry : versions.entrySet()) {
+            history.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return history;
+    }
+
+    /**
+     * 以统一格式显示文件差异
+     * gitlet diff                  工作区 与 暂存区（当前提交加上暂存的修改）
+     * gitlet diff --cached         暂存区 与 当前提交
+     * gitlet diff <提交>           工作区 与 指定提交
+     * gitlet diff <提交1> <提交2>  两个提交之间
+     * 提交可以用分支名或提交ID（前缀）指定
+     * 工作区文件的哈希优先取自 stat 缓存，哈希相同的文件不读取内容
+     */
+    public static void diff(String[] targets) {
+        checkInGitlet();
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        if (targets.length == 2) {
+            Commit from = resolveCommit(targets[0]);
+            Commit to = resolveCommit(targets[1]);
+            // 两个提交之间只比较树中哈希不同的路径，不需要展开整个提交
+            for (Map.Entry<String, String[]> entry : Tree.changes(from.getTreeID(), to.getTreeID()).entrySet()) {
+                writeFileDiff(out, entry.getKey(), entry.getValue()[0], entry.getValue()[1], null);
+            }
+            flushDiff(out);
+            return;
+        }
+        SortedMap<String, String> headFiles = getCurrentCommit().getFileToBlobID();
+        SortedMap<String, String> stagingArea = readStagingArea();
+        // 从有序映射复制是线性的，之后只应用暂存区中的少量修改
+        SortedMap<String, String> indexFiles = new TreeMap<>(headFiles);
+        for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
+            if (entry.getValue() == null) {
+                indexFiles.remove(entry.getKey());
+            } else {
+                indexFiles.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (targets.length == 1 && targets[0].equals("--cached")) {
+            for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
+                String oldID = headFiles.get(entry.getKey());
+                String newID = entry.getValue();
+                if (!Objects.equals(oldID, newID)) {
+                    writeFileDiff(out, entry.getKey(), oldID, newID, null);
+                }
+            }
+            flushDiff(out);
+            return;
+        }
+        SortedMap<String, String> baseFiles = targets.length == 1
+                ? resolveCommit(targets[0]).getFileToBlobID() : indexFiles;
+        // 只比较被跟踪的文件：比较对象中的文件，以及暂存区中的文件，两者按路径同时遍历
+        MergeJoin.forEach(List.of(baseFiles, indexFiles), (path, ids) -> {
+            File file = join(CWD, path);
+            String workingID = file.isFile() ? hashWorkingFile(file, path, false) : null;
+            if (!Objects.equals(ids[0], workingID)) {
+                writeFileDiff(out, path, ids[0], workingID, workingID == null ? null : file);
+            }
+        });
+        flushDiff(out);
+    }
+
+    /**
+     * 输出一个文件的差异，ID 为 null 表示该侧没有这个文件
+     * @param workingFile 新版本在工作区中的文件，为 null 时从对象库读取
+     */
+    private static void writeFileDiff(OutputStream out, String path, String oldID, String newID, File workingFile) {
+        byte[] oldContent = oldID == null ? new byte[0] : getBlobContent(oldID);
+        byte[] newContent = workingFile != null ? readContents(workingFile)
+                : newID == null ? new byte[0] : getBlobContent(newID);
+        try {
+            out.write(("diff --gitlet a/" + path + " b/" + path + "\n").getBytes(StandardCharsets.UTF_8));
+            if (oldID == null) {
+                out.write("new file\n".getBytes(StandardCharsets.UTF_8));
+            } else if (newID == null) {
+                out.write("deleted file\n".getBytes(StandardCharsets.UTF_8));
+            }
+            Diff.writeUnified(out, oldID == null ? "/dev/null" : "a/" + path,
+                    newID == null ? "/dev/null" : "b/" + path, oldContent, newContent);
+        } catch (IOException e) {
+            throw new GitletException("输出差异失败: " + e.getMessage());
+        }
+    }
+
+    private static void flushDiff(OutputStream out) {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new GitletException("输出差异失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 按分支名或提交ID（可以是唯一的前缀）查找提交
+     */
+    private static Commit resolveCommit(String name) {
+        File branch = join(HEADS_DIR, name);
+        if (branch.isFile()) {
+            return readCommitFromObjects(readContentsAsString(branch));
+        }
+        String found = null;
+        for (CommitGraph.Node node : CommitGraph.all()) {
+            if (node.getId().startsWith(name)) {
+                if (found != null) {
+                    System.out.println("提交ID前缀不唯一");
+                    exit(1);
+                }
+                found = node.getId();
+            }
+        }
+        if (found == null) {
+            System.out.println("提交不存在");
+            exit(1);
+        }
+        return readCommitFromObjects(found);
+    }
+
     public static void status() {
         checkInGitlet();
 
@@ -640,6 +674,89 @@ public class Repository {
             }
         }
         System.out.println();
+        printWorkingTreeStatus();
+    }
+
+    /**
+     * 打印未暂存的修改和未跟踪的文件
+     * 工作区文件的 stat 信息与索引缓存一致时直接使用缓存的哈希，只有变化过的文件才会被读取；
+     * 重新计算的哈希写回索引，下一次 status 可以直接使用
+     */
+    private static void printWorkingTreeStatus() {
+        Map<String, String> headFiles = getCurrentCommit().getFileToBlobID();
+        Map<String, String> stagingArea = readStagingArea();
+        // 期望的文件内容：当前提交加上暂存的修改
+        Map<String, String> expected = new HashMap<>(headFiles);
+        for (Map.Entry<String, String> entry : stagingArea.entrySet()) {
+            if (entry.getValue() == null) {
+                expected.remove(entry.getKey());
+            } else {
+                expected.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // 被忽略的目录中如果有被跟踪的文件，仍然需要进入该目录
+        Set<String> trackedDirs = new HashSet<>();
+        for (String path : expected.keySet()) {
+            for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                trackedDirs.add(path.substring(0, slash));
+            }
+        }
+        IgnoreMatcher ignore = IgnoreMatcher.get();
+        SortedMap<String, File> workingFiles = WorkingTree.walk(CWD, "", (path, isDirectory) ->
+                !expected.containsKey(path) && !trackedDirs.contains(path) && ignore.isIgnoredPath(path, isDirectory));
+        List<String> trackedPaths = new ArrayList<>();
+        for (String path : workingFiles.keySet()) {
+            if (expected.containsKey(path)) {
+                trackedPaths.add(path);
+            }
+        }
+
+        Index index = Index.get();
+        Index.Stat[] stats = new Index.Stat[trackedPaths.size()];
+        String[] cached = new String[trackedPaths.size()];
+        String[] blobHashes = new String[trackedPaths.size()];
+        Parallel.forEach(trackedPaths.size(), i -> {
+            File file = workingFiles.get(trackedPaths.get(i));
+            stats[i] = Index.stat(file);
+            cached[i] = index.cachedBlobID(trackedPaths.get(i), stats[i]);
+            blobHashes[i] = cached[i] != null ? cached[i] : ObjectStore.hashBlob(file);
+        });
+
+        SortedMap<String, String> modifications = new TreeMap<>();
+        boolean refreshed = false;
+        for (int i = 0; i < trackedPaths.size(); i++) {
+            String path = trackedPaths.get(i);
+            if (cached[i] == null) {
+                index.record(path, stats[i], blobHashes[i]);
+                refreshed = true;
+            }
+            if (!blobHashes[i].equals(expected.get(path))) {
+                modifications.put(path, "modified");
+            }
+        }
+        for (String path : expected.keySet()) {
+            if (!workingFiles.containsKey(path)) {
+                modifications.put(path, "deleted");
+            }
+        }
+        // 与其他只读命令同时执行时（共享锁）不写回缓存
+        if (refreshed && RepositoryLock.isExclusive()) {
+            index.save();
+        }
+
+        System.out.println("=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> entry : modifications.entrySet()) {
+            System.out.println(entry.getKey() + " (" + entry.getValue() + ")");
+        }
+        System.out.println();
+        System.out.println("=== Untracked Files ===");
+        for (String path : workingFiles.keySet()) {
+            if (!expected.containsKey(path) && !path.equals(".ignore")) {
+                System.out.println(path);
+            }
+        }
+        System.out.println();
     }
 
     public static void checkout(String branchName) {
@@ -649,30 +766,30 @@ public class Repository {
 
         if (!branch.exists()) {
             System.out.println("分支不存在");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         } else if(branchName.equals(getCurrentBranch())) {
             System.out.println("已在对应分支");
-            operationHistory.invalidOperation();
-            System.exit(0);
+            operationHistory().invalidOperation();
+            exit(0);
         }
 
         Commit targetCommit = readCommitFromObjects(readContentsAsString(branch));
         reset(targetCommit.getId(), true);
-        writeContents(HEAD, "ref: refs/heads/" + branchName);
+        Transaction.write(HEAD, "ref: refs/heads/" + branchName);
         
         // 记录操作历史，保存操作前的分支状态
-        Map<String, Object> params = new HashMap<>();
+        Map<String, String> params = new HashMap<>();
         params.put("branchName", branchName);
         params.put("previousBranch", previousBranch);
-        operationHistory.recordOperation(OperationHistory.OperationType.CHECKOUT, params, null);
+        operationHistory().recordOperation(OperationHistory.OperationType.CHECKOUT, params, null, null);
 
     }
     public static void checkout(String commitId, String fileName) {
         checkInGitlet();
         
-        // 收集操作前的文件内容用于撤销
-        Map<String, byte[]> fileContentsBefore = new HashMap<>();
+        // 把操作前的文件内容保存到对象库，记录 Blob ID 用于撤销
+        Map<String, String> fileContentsBefore = new HashMap<>();
         String normalizedFileName = Normalization(fileName);
         boolean explicitDirectory = normalizedFileName.endsWith("/");
         if (explicitDirectory) {
@@ -686,12 +803,7 @@ public class Repository {
             // 收集单个文件的内容
             File file = join(CWD, normalizedFileName);
             if (file.exists() && file.isFile()) {
-                try {
-                    fileContentsBefore.put(normalizedFileName, readContents(file));
-                } catch (Exception e) {
-                    // 文件读取失败，记录空内容
-                    fileContentsBefore.put(normalizedFileName, new byte[0]);
-                }
+                fileContentsBefore.put(normalizedFileName, hashWorkingFile(file, normalizedFileName, true));
             }
         }
         
@@ -705,10 +817,11 @@ public class Repository {
                     if (currentCommit.getId().startsWith(commitId)) {
                         getFileOrDirectoryInCommit(fileName, currentCommit);
                         // 记录操作历史
-                        Map<String, Object> params = new HashMap<>();
+                        Map<String, String> params = new HashMap<>();
                         params.put("commitId", commitId);
                         params.put("fileName", fileName);
-                        operationHistory.recordOperation(OperationHistory.OperationType.CHECKOUT, params, fileContentsBefore);
+                        operationHistory().recordOperation(OperationHistory.OperationType.CHECKOUT, params, null,
+                                fileContentsBefore);
                         return;
                     }
                     if (currentCommit.getParent1ID() != null) {
@@ -722,18 +835,18 @@ public class Repository {
         }
         
         // 记录操作历史
-        Map<String, Object> params = new HashMap<>();
+        Map<String, String> params = new HashMap<>();
         params.put("commitId", commitId);
         params.put("fileName", fileName);
-        operationHistory.recordOperation(OperationHistory.OperationType.CHECKOUT, params, fileContentsBefore);
+        operationHistory().recordOperation(OperationHistory.OperationType.CHECKOUT, params, null, fileContentsBefore);
     }
     
     /**
-     * 收集目录中所有文件的内容
+     * 把目录中所有文件的内容保存到对象库
      * @param dirName 目录名
-     * @param fileContents 文件内容映射
+     * @param fileContents 文件路径 → Blob ID
      */
-    private static void collectDirectoryFileContents(String dirName, Map<String, byte[]> fileContents) {
+    private static void collectDirectoryFileContents(String dirName, Map<String, String> fileContents) {
         File dir = join(CWD, dirName);
         if (dir.exists() && dir.isDirectory()) {
             collectDirectoryFiles(dir, dirName, fileContents);
@@ -741,12 +854,12 @@ public class Repository {
     }
     
     /**
-     * 递归收集目录中所有文件的内容
+     * 递归把目录中所有文件的内容保存到对象库
      * @param dir 目录文件
      * @param dirPath 目录路径
-     * @param fileContents 文件内容映射
+     * @param fileContents 文件路径 → Blob ID
      */
-    private static void collectDirectoryFiles(File dir, String dirPath, Map<String, byte[]> fileContents) {
+    private static void collectDirectoryFiles(File dir, String dirPath, Map<String, String> fileContents) {
         File[] files = dir.listFiles();
         if (files != null) {
             for (File file : files) {
@@ -758,12 +871,7 @@ public class Repository {
                 if (file.isDirectory()) {
                     collectDirectoryFiles(file, filePath, fileContents);
                 } else {
-                    try {
-                        fileContents.put(filePath, readContents(file));
-                    } catch (Exception e) {
-                        // 文件读取失败，记录空内容
-                        fileContents.put(filePath, new byte[0]);
-                    }
+                    fileContents.put(filePath, hashWorkingFile(file, filePath, true));
                 }
             }
         }
@@ -791,8 +899,7 @@ public class Repository {
             // 优先匹配文件，然后匹配目录
             if (currentCommit.getFileToBlobID().containsKey(normalizedFileName)) {
                 // 找到匹配的文件
-                byte[] content = getFileContentFromCommit(currentCommit, normalizedFileName);
-                writeFileToWorkDir(normalizedFileName, content);
+                checkoutBlob(normalizedFileName, currentCommit.getFileToBlobID().get(normalizedFileName));
             } else {
                 // 没有找到匹配的文件，尝试匹配目录
                 checkoutDirectory(normalizedFileName, currentCommit);
@@ -806,20 +913,21 @@ public class Repository {
      * @param currentCommit 当前提交
      */
     private static void checkoutDirectory(String dirName, Commit currentCommit) {
+        SortedMap<String, String> files = currentCommit.getFileToBlobID();
         boolean found = false;
-        for (Map.Entry<String, String> entry : currentCommit.getFileToBlobID().entrySet()) {
-            String filePath = entry.getKey();
-            if (filePath.equals(dirName) || filePath.startsWith(dirName + "/")) {
-                found = true;
-                byte[] content = getFileContentFromCommit(currentCommit, filePath);
-                writeFileToWorkDir(filePath, content);
-            }
+        if (files.containsKey(dirName)) {
+            found = true;
+            checkoutBlob(dirName, files.get(dirName));
+        }
+        for (Map.Entry<String, String> entry : filesUnder(files, dirName).entrySet()) {
+            found = true;
+            checkoutBlob(entry.getKey(), entry.getValue());
         }
         
         if (!found) {
             System.out.println("对应提交内不存在指定文件或目录");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
     }
 
@@ -828,12 +936,12 @@ public class Repository {
         if (join(HEADS_DIR, branchName).exists()) {
             System.out.println("分支已存在");
         } else {
-            writeContents(join(HEADS_DIR, branchName), getCurrentCommit().getId());
+            Transaction.write(join(HEADS_DIR, branchName), getCurrentCommit().getId());
             
             // 记录操作历史，保存操作前的分支状态
-            Map<String, Object> params = new HashMap<>();
+            Map<String, String> params = new HashMap<>();
             params.put("branchName", branchName);
-            operationHistory.recordOperation(OperationHistory.OperationType.BRANCH, params, null);
+            operationHistory().recordOperation(OperationHistory.OperationType.BRANCH, params, null, null);
         }
     }
 
@@ -842,22 +950,22 @@ public class Repository {
         File branchFile = join(HEADS_DIR, branchName);
         if (!branchFile.exists()) {
             System.out.println("分支不存在");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         } else if(branchName.equals(getCurrentBranch())) {
             System.out.println("无法删除当前所在分支");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         } else {
             // 记录操作历史，保存被删除分支的引用
-            Map<String, Object> params = new HashMap<>();
+            Map<String, String> params = new HashMap<>();
             params.put("branchName", branchName);
-            String branchRef = readContentsAsString(branchFile);
-            operationHistory.recordOperation(OperationHistory.OperationType.RM_BRANCH, params, branchRef);
+            params.put("branchRef", readContentsAsString(branchFile));
+            operationHistory().recordOperation(OperationHistory.OperationType.RM_BRANCH, params, null, null);
             
-            branchFile.delete();
+            Transaction.delete(branchFile);
             
-            System.exit(0);
+            exit(0);
         }
 
     }
@@ -870,20 +978,13 @@ public class Repository {
         Commit currentCommit = getCurrentCommit();
         Map<String, String> staging = readStagingArea();
 
-        // 收集工作目录中的所有文件（包括子目录）
-        Set<String> workingFiles = new HashSet<>();
-        collectWorkingFiles(CWD, "", workingFiles);
-        // 读取 .gitignore 规则
-        Set<String> ignorePaths = readIgnoreFile();
+        // 收集工作目录中的所有文件（包括子目录），被忽略的目录不会被遍历
+        Set<String> workingFiles = WorkingTree.walk(CWD, "", IgnoreMatcher.get()::isIgnored).keySet();
 
         boolean hasConflict = false;
         List<String> conflictFiles = new ArrayList<>();
 
         for (String filePath : workingFiles) {
-            // 跳过忽略的文件
-            if (shouldBeIgnored(filePath, ignorePaths)) {
-                continue;
-            }
             // 特殊处理：跳过.ignore文件本身
             if (filePath.equals(".ignore")) {
                 continue;
@@ -910,24 +1011,21 @@ public class Repository {
                 // 对于已跟踪文件，检查未暂存的修改是否会被目标提交覆盖
                 if (inCurrent && !inStaging) {
                     try {
-                        // 获取当前提交中的文件内容
+                        // Blob 按内容寻址，比较哈希即可，不需要读取 Blob 内容
                         String currentBlobHash = currentCommit.getFileToBlobID().get(filePath);
-                        Blob currentBlob = readObject(join(OBJECTS_DIR, currentBlobHash), Blob.class);
 
-                        // 获取工作目录中的文件内容
+                        // 获取工作目录中文件的哈希（stat 未变化时复用索引缓存）
                         File workingFile = join(CWD, filePath);
-                        Blob workingBlob = new Blob(readContents(workingFile));
+                        String workingBlobHash = hashWorkingFile(workingFile, filePath, false);
 
                         // 检查工作目录是否与当前提交不同
-                        boolean workingDiffersFromCurrent = !currentBlob.getID().equals(workingBlob.getID());
+                        boolean workingDiffersFromCurrent = !currentBlobHash.equals(workingBlobHash);
 
                         if (workingDiffersFromCurrent && inTarget) {
-                            // 获取目标提交中的文件内容
                             String targetBlobHash = targetCommit.getFileToBlobID().get(filePath);
-                            Blob targetBlob = readObject(join(OBJECTS_DIR, targetBlobHash), Blob.class);
 
                             // 检查目标提交是否与工作目录不同
-                            boolean targetDiffersFromWorking = !targetBlob.getID().equals(workingBlob.getID());
+                            boolean targetDiffersFromWorking = !targetBlobHash.equals(workingBlobHash);
 
                             if (targetDiffersFromWorking) {
                                 hasConflict = true;
@@ -952,36 +1050,11 @@ public class Repository {
             System.out.println("   1. 提交您的修改：gitlet commit");
             System.out.println("   2. 移动或删除冲突文件");
             System.out.println("   3. 添加未跟踪文件到暂存区：gitlet add <文件>");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
     }
 
-    /**
-     * 递归收集工作目录中的所有文件
-     * @param dir 当前目录
-     * @param prefix 路径前缀
-     * @param files 收集到的文件集合
-     */
-    private static void collectWorkingFiles(File dir, String prefix, Set<String> files) {
-        File[] dirFiles = dir.listFiles();
-        if (dirFiles != null) {
-            for (File file : dirFiles) {
-                // 跳过版本控制目录
-                if (file.getName().equals(".gitlet") || file.getName().equals(".git")) {
-                    continue;
-                }
-
-                String filePath = prefix.isEmpty() ? file.getName() : prefix + "/" + file.getName();
-
-                if (file.isFile()) {
-                    files.add(filePath);
-                } else if (file.isDirectory()) {
-                    collectWorkingFiles(file, filePath, files);
-                }
-            }
-        }
-    }
     public static void reset(String commitID, boolean isCheckOutBranch) {
         checkInGitlet();
         // 记录缓存区和当前commit
@@ -989,11 +1062,10 @@ public class Repository {
         Commit commitBefore = getCurrentCommit();
 
         // 验证提交ID是否存在
-        File commitFile = join(OBJECTS_DIR, commitID);
-        if (!commitFile.exists()) {
+        if (!ObjectStore.contains(commitID)) {
             System.out.println("❌ 错误：不存在该提交ID。");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
 
         Commit targetCommit = readCommitFromObjects(commitID);
@@ -1009,29 +1081,21 @@ public class Repository {
 
         // 更新为目标提交中的文件内容
         for (Map.Entry<String, String> entry : targetCommit.getFileToBlobID().entrySet()) {
-            String filePath = entry.getKey();
-            String blobHash = entry.getValue();
-            
             // 写入文件内容
-            byte[] content = getFileContentFromCommit(targetCommit, filePath);
-            writeFileToWorkDir(filePath, content);
+            checkoutBlob(entry.getKey(), entry.getValue());
         }
 
         // 更新分支引用（如果不是checkout操作）
         if (!isCheckOutBranch) {
             String currentBranch = getCurrentBranch();
-            writeContents(join(HEADS_DIR, currentBranch), commitID);
+            Transaction.write(join(HEADS_DIR, currentBranch), commitID);
             System.out.println("✅ 已成功重置到提交 " + commitID.substring(0, 7));
             
-            // 记录操作历史，保存操作前的暂存区状态和提交信息
-            Map<String, Object> params = new HashMap<>();
-            String branchRef = readContentsAsString(join(HEADS_DIR, currentBranch));
-            Map<String, Object> resetData = new HashMap<>();
-            resetData.put("staging", stagingBefore);
-            resetData.put("commit", commitBefore);
-            resetData.put("branchRef", branchRef);
-            resetData.put("branchName", currentBranch);
-            operationHistory.recordOperation(OperationHistory.OperationType.RESET, params, resetData);
+            // 记录操作历史，保存操作前的暂存区状态和提交ID
+            Map<String, String> params = new HashMap<>();
+            params.put("branchName", currentBranch);
+            params.put("commitBefore", commitBefore.getId());
+            operationHistory().recordOperation(OperationHistory.OperationType.RESET, params, stagingBefore, null);
         }
     }
 
@@ -1080,18 +1144,18 @@ public class Repository {
         Map<String, String> stagingArea = readStagingArea();
         if (!stagingArea.isEmpty()) {
             System.out.println("缓存区存在未提交的文件");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         if (!join(HEADS_DIR, branchName).exists()) {
             System.out.println("指定合并分支不存在");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         if (branchName.equals(getCurrentBranch())) {
             System.out.println("分支无法与自身合并");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
         // 2. 获取当前分支和被合并分支的最新提交
         Commit currentCommit = getCurrentCommit();
@@ -1109,12 +1173,11 @@ public class Repository {
             System.out.println("指定的分支是当前分支的祖先， 无需合并");
             
             // 记录操作历史
-            Map<String, Object> params = new HashMap<>();
-            Map<String, Object> mergeData = new HashMap<>();
-            mergeData.put("type", "no-need"); // 无需合并
-            operationHistory.recordOperation(OperationHistory.OperationType.MERGE, params, mergeData);
+            Map<String, String> params = new HashMap<>();
+            params.put("mergeType", "no-need"); // 无需合并
+            operationHistory().recordOperation(OperationHistory.OperationType.MERGE, params, null, null);
             
-            System.exit(0);
+            exit(0);
         }
 
         // 情况2：当前分支是给定分支的祖先
@@ -1122,39 +1185,34 @@ public class Repository {
             // 快进合并，直接检出给定分支的提交
             String givenCommitId = givenCommit.getId();
             reset(givenCommitId, false);
-            writeContents(HEAD, "ref: refs/heads/" + getCurrentBranch());
+            Transaction.write(HEAD, "ref: refs/heads/" + getCurrentBranch());
             System.out.println("快进合并完成");
             
             // 记录操作历史
-            Map<String, Object> params = new HashMap<>();
+            Map<String, String> params = new HashMap<>();
             params.put("branchName", branchName);
-            Map<String, Object> mergeData = new HashMap<>();
-            mergeData.put("commit", commitBefore);
-            mergeData.put("staging", stagingBefore);
-            mergeData.put("type", "fast-forward"); // 快进合并
-            operationHistory.recordOperation(OperationHistory.OperationType.MERGE, params, mergeData);
+            params.put("commitBefore", commitBefore.getId());
+            params.put("mergeType", "fast-forward"); // 快进合并
+            operationHistory().recordOperation(OperationHistory.OperationType.MERGE, params, stagingBefore, null);
             
-            System.exit(0);
+            exit(0);
         }
 
         // ========== 5. 执行三方合并 ==========
         Map<String, String> mergedFiles = new HashMap<>();
-        boolean hasConflict = false;
 
-        // 获取所有涉及的文件（包括可能被删除的文件）
-        Set<String> allFiles = new HashSet<>();
-        allFiles.addAll(splitPoint.getFileToBlobID().keySet());
-        allFiles.addAll(currentCommit.getFileToBlobID().keySet());
-        allFiles.addAll(givenCommit.getFileToBlobID().keySet());
+        // 只需处理三棵树之间有差异的文件（包括可能被删除的文件），三方相同的子目录整体跳过
+        // 三棵树按路径同时遍历，直接得到每个文件在三方的哈希，不需要展开三个提交
+        SortedMap<String, String[]> allFiles = Tree.changes(
+                splitPoint.getTreeID(), currentCommit.getTreeID(), givenCommit.getTreeID());
 
-        for (String fileName : allFiles) {
-            String baseBlobHash = splitPoint.getFileToBlobID().get(fileName);
-            String currentBlobHash = currentCommit.getFileToBlobID().get(fileName);
-            String givenBlobHash = givenCommit.getFileToBlobID().get(fileName);
-
-            // 获取文件内容（可能为null表示文件被删除）
-            byte[] currentContent = getBlobContent(currentBlobHash);
-            byte[] givenContent = getBlobContent(givenBlobHash);
+        // 第一遍只比较哈希完成分类，只有冲突的文件才需要读取内容
+        List<String> conflictFiles = new ArrayList<>();
+        for (Map.Entry<String, String[]> entry : allFiles.entrySet()) {
+            String fileName = entry.getKey();
+            String baseBlobHash = entry.getValue()[0];
+            String currentBlobHash = entry.getValue()[1];
+            String givenBlobHash = entry.getValue()[2];
 
             // === 合并规则判断 ===
             // 规则1：双方未修改 → 保持当前版本
@@ -1183,31 +1241,57 @@ public class Repository {
                     mergedFiles.put(fileName, currentBlobHash); // 仅在当前分支存在
                 } else {
                     // 冲突：双方都新增了同名但内容不同的文件
-                    hasConflict = true;
-                    byte[] conflictContent = generateConflictContent(currentContent, givenContent);
-                    Blob conflictBlob = new Blob(conflictContent);
-                    saveBlob(conflictBlob);
-                    mergedFiles.put(fileName, conflictBlob.getID());
+                    conflictFiles.add(fileName);
                 }
                 continue;
             }
 
-            // 规则5：都修改了文件 → 生成冲突标记
-            hasConflict = true;
-            byte[] conflictContent = generateConflictContent(currentContent, givenContent);
-            Blob conflictBlob = new Blob(conflictContent);
-            saveBlob(conflictBlob);
-            mergedFiles.put(fileName, conflictBlob.getID());
+            // 规则5：都修改了文件 → 按行合并，重叠的修改生成冲突标记
+            conflictFiles.add(fileName);
+        }
+
+        // 第二遍读取双方都修改了的文件的内容（可能为null表示文件被删除），逐个合并
+        int loadedBlobs = 0;
+        int conflictCount = 0;
+        for (String fileName : conflictFiles) {
+            String baseBlobHash = allFiles.get(fileName)[0];
+            String currentBlobHash = allFiles.get(fileName)[1];
+            String givenBlobHash = allFiles.get(fileName)[2];
+            byte[] currentContent = getBlobContent(currentBlobHash);
+            byte[] givenContent = getBlobContent(givenBlobHash);
+            loadedBlobs += (currentBlobHash == null ? 0 : 1) + (givenBlobHash == null ? 0 : 1);
+
+            Diff.MergeResult result;
+            if (currentContent == null || givenContent == null
+                    || Diff.isBinary(currentContent) || Diff.isBinary(givenContent)) {
+                // 一方删除了文件，或是二进制文件，无法按行合并
+                result = new Diff.MergeResult(generateConflictContent(currentContent, givenContent), true);
+            } else {
+                byte[] baseContent = baseBlobHash == null ? new byte[0] : getBlobContent(baseBlobHash);
+                loadedBlobs += baseBlobHash == null ? 0 : 1;
+                result = Diff.merge3(baseContent, currentContent, givenContent);
+            }
+            if (result.hasConflict()) {
+                conflictCount += 1;
+            }
+            mergedFiles.put(fileName, ObjectStore.writeBlob(result.getContent()));
+        }
+        boolean hasConflict = conflictCount > 0;
+        if (Boolean.getBoolean("gitlet.stats")) {
+            System.err.println("[merge] " + allFiles.size() + " changed files, "
+                    + conflictCount + " conflicts, " + loadedBlobs + " blobs loaded");
         }
 
         // ========== 6. 创建合并提交 ==========
+        // 合并结果 = 当前提交的树 + 有差异文件的合并结果
+        String mergedTreeID = Tree.update(currentCommit.getTreeID(), mergedFiles);
         // 检查是否有实际变更（避免空提交）
-        boolean hasRealChanges = !mergedFiles.equals(currentCommit.getFileToBlobID())
-                || !mergedFiles.equals(givenCommit.getFileToBlobID());
+        boolean hasRealChanges = !mergedTreeID.equals(currentCommit.getTreeID())
+                || !mergedTreeID.equals(givenCommit.getTreeID());
         if (!hasRealChanges) {
             System.out.println("合并提交没有新的改变，合并终止");
-            operationHistory.invalidOperation();
-            System.exit(1);
+            operationHistory().invalidOperation();
+            exit(1);
         }
 
         Commit mergeCommit = new Commit(
@@ -1215,7 +1299,7 @@ public class Repository {
                 givenCommit.getId(),       // 第二父提交
                 new Date(),
                 "Merged " + branchName + " into " + getCurrentBranch() + ".",
-                mergedFiles
+                mergedTreeID
         );
 
         // 保存提交并更新分支
@@ -1228,25 +1312,23 @@ public class Repository {
         }
         
         // ========== 7. 更新工作目录 ==========
-        updateWorkingDirectory(mergedFiles);
+        updateWorkingDirectory(mergeCommit.getFileToBlobID());
         
         // 记录操作历史
-        Map<String, Object> params = new HashMap<>();
+        Map<String, String> params = new HashMap<>();
         params.put("branchName", branchName);
-        Map<String, Object> mergeData = new HashMap<>();
-        mergeData.put("commit", commitBefore);
-        mergeData.put("staging", stagingBefore);
-        mergeData.put("type", "normal"); // 普通合并
-        operationHistory.recordOperation(OperationHistory.OperationType.MERGE, params, mergeData);
+        params.put("commitBefore", commitBefore.getId());
+        params.put("mergeType", "normal"); // 普通合并
+        operationHistory().recordOperation(OperationHistory.OperationType.MERGE, params, stagingBefore, null);
     }
     
     /**
      * 更新工作目录以匹配合并结果
      * @param mergedFiles 合并后的文件映射
      */
-    private static void updateWorkingDirectory(Map<String, String> mergedFiles) {
+    private static void updateWorkingDirectory(SortedMap<String, String> mergedFiles) {
         // 删除工作目录中未被跟踪的文件
-        deleteUntrackedFiles(CWD, mergedFiles.keySet());
+        deleteUntrackedFiles(CWD, mergedFiles);
 
         // 写入合并后的文件内容
         for (Map.Entry<String, String> entry : mergedFiles.entrySet()) {
@@ -1254,8 +1336,7 @@ public class Repository {
             String blobHash = entry.getValue();
 
             if (blobHash != null) {
-                byte[] content = getBlobContent(blobHash);
-                writeFileToWorkDir(fileName, content);
+                checkoutBlob(fileName, blobHash);
             } else {
                 // 如果blobHash为null，表示文件应被删除
                 File file = join(CWD, fileName);
@@ -1269,9 +1350,9 @@ public class Repository {
     /**
      * 递归删除工作目录中未被跟踪的文件和目录
      * @param dir 要检查的目录
-     * @param trackedPaths 被跟踪文件的路径集合（相对路径）
+     * @param trackedPaths 按路径排序的被跟踪文件（相对路径）
      */
-    private static void deleteUntrackedFiles(File dir, Set<String> trackedPaths) {
+    private static void deleteUntrackedFiles(File dir, SortedMap<String, String> trackedPaths) {
         File[] files = dir.listFiles();
         if (files == null) return;
 
@@ -1302,7 +1383,7 @@ public class Repository {
                 }
             } else {
                 // 检查文件是否被跟踪
-                if (!trackedPaths.contains(relativePath)) {
+                if (!trackedPaths.containsKey(relativePath)) {
                     file.delete();
                 }
             }
@@ -1312,19 +1393,12 @@ public class Repository {
     /**
      * 检查目录是否包含被跟踪的文件
      * @param dirPath 目录路径
-     * @param trackedPaths 被跟踪文件的路径集合
+     * @param trackedPaths 按路径排序的被跟踪文件
      * @return 如果目录包含被跟踪的文件返回true，否则返回false
      */
-    private static boolean isDirectoryTracked(String dirPath, Set<String> trackedPaths) {
-        // 确保目录路径以"/"结尾，以便正确匹配子路径
-        String prefix = dirPath.endsWith("/") ? dirPath : dirPath + "/";
-
-        for (String path : trackedPaths) {
-            if (path.startsWith(prefix)) {
-                return true;
-            }
-        }
-        return false;
+    private static boolean isDirectoryTracked(String dirPath, SortedMap<String, String> trackedPaths) {
+        String dir = dirPath.endsWith("/") ? dirPath.substring(0, dirPath.length() - 1) : dirPath;
+        return !filesUnder(trackedPaths, dir).isEmpty();
     }
 
     /**
@@ -1369,18 +1443,9 @@ public class Repository {
 
     private static byte[] getBlobContent(String blobHash) {
         if (blobHash == null) return null;
-        Blob blob = readObject(join(OBJECTS_DIR, blobHash), Blob.class);
-        return (byte[]) blob.getContent();
+        return ObjectStore.readBlob(blobHash);
     }
 
-    private static void saveBlob(Blob blob) {
-        if (blob == null) return;
-
-        File blobFile = join(OBJECTS_DIR, blob.getID());
-        if (!blobFile.exists()) {
-            writeObject(blobFile, blob);
-        }
-    }
     private static byte[] generateConflictContent(byte[] current, byte[] given) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         try {
@@ -1398,56 +1463,12 @@ public class Repository {
     private static Commit findSplitPoint(Commit current, Commit given) {
         if (current == null || given == null) return null;
 
-        Set<String> visitedCurrent = new HashSet<>();
-        Queue<Commit> queue = new LinkedList<>();
-
-        // 遍历当前提交的所有祖先
-        queue.add(current);
-        while (!queue.isEmpty()) {
-            Commit commit = queue.poll();
-            if (commit == null) continue;
-
-            if (!visitedCurrent.contains(commit.getId())) {
-                visitedCurrent.add(commit.getId());
-                // 将第一个父提交加入队列
-                if (commit.getParent1ID() != null) {
-                    Commit parent1 = readCommitFromObjects(commit.getParent1ID());
-                    queue.add(parent1);
-                }
-                // 将第二个父提交加入队列（如果存在）
-                if (commit.getParent2ID() != null) {
-                    Commit parent2 = readCommitFromObjects(commit.getParent2ID());
-                    queue.add(parent2);
-                }
-            }
-        }
-
-        // 遍历给定提交的所有祖先，寻找第一个在visitedCurrent中出现的提交
-        Queue<Commit> givenQueue = new LinkedList<>();
-        Set<String> visitedGiven = new HashSet<>();
-        givenQueue.add(given);
-
-        while (!givenQueue.isEmpty()) {
-            Commit commit = givenQueue.poll();
-            if (commit == null) continue;
-
-            if (visitedCurrent.contains(commit.getId())) {
-                return commit; // 找到最低共同祖先
-            }
-
-            if (!visitedGiven.contains(commit.getId())) {
-                visitedGiven.add(commit.getId());
-                if (commit.getParent1ID() != null) {
-                    Commit parent1 = readCommitFromObjects(commit.getParent1ID());
-                    givenQueue.add(parent1);
-                }
-                if (commit.getParent2ID() != null) {
-                    Commit parent2 = readCommitFromObjects(commit.getParent2ID());
-                    givenQueue.add(parent2);
-                }
-            }
+        // 在提交图上按代数同时遍历两侧，找到分割点后才读取该提交
+        String splitPointId = CommitGraph.mergeBase(current.getId(), given.getId());
+        if (splitPointId == null) {
+            return null; // 无共同祖先（理论上不应发生）
         }
-        return null; // 无共同祖先（理论上不应发生）
+        return readCommitFromObjects(splitPointId);
     }
 
     /**
@@ -1456,262 +1477,214 @@ public class Repository {
      * @return 提交对象
      */
     private static Commit readCommitFromObjects(String commitId) {
-        return readObject(join(OBJECTS_DIR, commitId), Commit.class);
-    }
-    
-    /**
-     * 从提交中获取文件内容
-     * @param commit 提交对象
-     * @param filePath 文件路径
-     * @return 文件内容
-     */
-    private static byte[] getFileContentFromCommit(Commit commit, String filePath) {
-        String blobID = commit.getFileToBlobID().get(filePath);
-        if (blobID == null) {
-            return null;
-        }
-        Blob blob = readObject(join(OBJECTS_DIR, blobID), Blob.class);
-        return (byte[]) blob.getContent();
+        return ObjectStore.read(commitId, Commit.class);
     }
     
     /**
-     * 写入文件内容到工作目录
+     * 将 Blob 的内容检出到工作目录，内容从对象库流式复制到文件，不整体读入内存
      * @param filePath 文件路径
-     * @param content 文件内容
+     * @param blobID Blob 哈希
      */
-    private static void writeFileToWorkDir(String filePath, byte[] content) {
+    private static void checkoutBlob(String filePath, String blobID) {
         File file = join(CWD, filePath);
         ensureDirectoryExists(file.getParentFile());
-        writeContents(file, content);
+        ObjectStore.copyBlobTo(blobID, file);
     }
-    
+
         public static void undo() {
         checkInGitlet();
         
-        OperationHistory.OperationRecord lastOperation = operationHistory.getLastOperation();
+        OperationHistory.Operation lastOperation = operationHistory().getLastOperation();
         if (lastOperation == null) {
             System.out.println("没有可撤销的操作");
-            System.exit(1);
+            exit(1);
         }
         
-        OperationHistory.OperationType type = lastOperation.getType();
-        Map<String, Object> params = lastOperation.getParameters();
-        Object data = lastOperation.getData();
-        
-        switch (type) {
+        switch (lastOperation.getType()) {
             case ADD:
                 // 撤销add操作，需要重新构建暂存区
-                undoAdd(params, data);
+                undoAdd(lastOperation);
                 break;
             case COMMIT:
                 // 撤销commit操作，回退到上一个提交
-                undoCommit(params, data);
+                undoCommit(lastOperation);
                 break;
             case RM:
                 // 撤销rm操作，恢复文件
-                undoRm(params, data);
+                undoRm(lastOperation);
                 break;
             case BRANCH:
                 // 撤销branch操作，删除创建的分支
-                undoBranch(params, data);
+                undoBranch(lastOperation);
                 break;
             case RM_BRANCH:
                 // 撤销rm-branch操作，恢复删除的分支
-                undoRmBranch(params, data);
+                undoRmBranch(lastOperation);
                 break;
             case CHECKOUT:
                 // 撤销checkout操作，切换回原来的分支
-                undoCheckout(params, data);
+                undoCheckout(lastOperation);
                 break;
             case RESET:
                 // 撤销reset操作，恢复到操作前的状态
-                undoReset(params, data);
+                undoReset(lastOperation);
                 break;
             case MERGE:
                 // 撤销merge操作，回退到合并前的状态
-                undoMerge(params, data);
+                undoMerge(lastOperation);
                 break;
             default:
                 System.out.println("不支持撤销该操作");
-                System.exit(1);
+                exit(1);
         }
         
         // 移除已撤销的操作记录
-        operationHistory.removeLastOperation();
+        operationHistory().removeLastOperation();
+    }
+
+    /**
+     * 恢复操作前的暂存区状态
+     */
+    private static void restoreStagingArea(OperationHistory.Operation operation) {
+        saveStagingArea(operation.restoreStaging(readStagingArea()));
+    }
+
+    /**
+     * 把记录中的文件（路径 → Blob ID）写回工作目录
+     */
+    private static void restoreFiles(OperationHistory.Operation operation) {
+        for (Map.Entry<String, String> entry : operation.getFiles().entrySet()) {
+            checkoutBlob(entry.getKey(), entry.getValue());
+        }
     }
     
-    private static void undoAdd(Map<String, Object> params, Object data) {
+    private static void undoAdd(OperationHistory.Operation operation) {
         // 恢复操作前的暂存区状态
-        if (data instanceof Map) {
-            saveStagingArea((Map<String, String>) data);
-            System.out.println("已撤销add操作");
-        } else {
-            System.out.println("无法撤销add操作：状态数据损坏");
-            System.exit(1);
-        }
+        restoreStagingArea(operation);
+        System.out.println("已撤销add操作");
     }
     
-    private static void undoCommit(Map<String, Object> params, Object data) {
+    private static void undoCommit(OperationHistory.Operation operation) {
         // 恢复操作前的提交和暂存区状态
-        if (data instanceof Map) {
-            Map<String, Object> commitData = (Map<String, Object>) data;
-            Commit commitBefore = (Commit) commitData.get("commit");
-            Map<String, String> stagingBefore = (Map<String, String>) commitData.get("staging");
-            
-            // 恢复分支引用到之前的提交
-            String currentBranch = getCurrentBranch();
-            writeContents(join(HEADS_DIR, currentBranch), commitBefore.getId());
-            
-            // 恢复暂存区
-            saveStagingArea(stagingBefore);
-            
-            System.out.println("已撤销commit操作");
-        } else {
+        String commitBefore = operation.getParameter("commitBefore");
+        if (commitBefore == null) {
             System.out.println("无法撤销commit操作：状态数据损坏");
-            System.exit(1);
+            exit(1);
         }
+
+        // 恢复分支引用到之前的提交
+        String currentBranch = getCurrentBranch();
+        Transaction.write(join(HEADS_DIR, currentBranch), commitBefore);
+
+        // 恢复暂存区
+        restoreStagingArea(operation);
+
+        System.out.println("已撤销commit操作");
     }
     
-    private static void undoRm(Map<String, Object> params, Object data) {
-        // 恢复操作前的暂存区状态和文件内容
-        if (data instanceof Map) {
-            Map<String, Object> rmData = (Map<String, Object>) data;
-            Map<String, String> stagingBefore = (Map<String, String>) rmData.get("staging");
-            Map<String, byte[]> deletedFilesContent = (Map<String, byte[]>) rmData.get("deletedFilesContent");
-            
-            // 恢复暂存区
-            saveStagingArea(stagingBefore);
-            
-            // 恢复被删除的文件到工作目录
-            if (deletedFilesContent != null) {
-                for (Map.Entry<String, byte[]> entry : deletedFilesContent.entrySet()) {
-                    String fileName = entry.getKey();
-                    byte[] content = entry.getValue();
-                    writeFileToWorkDir(fileName, content);
-                }
-            }
-            
-            System.out.println("已撤销rm操作");
-        } else {
-            System.out.println("无法撤销rm操作：状态数据损坏");
-            System.exit(1);
-        }
+    private static void undoRm(OperationHistory.Operation operation) {
+        // 恢复被删除的文件到工作目录
+        restoreFiles(operation);
+
+        System.out.println("已撤销rm操作");
     }
     
-    private static void undoBranch(Map<String, Object> params, Object data) {
-        String branchName = (String) params.get("branchName");
+    private static void undoBranch(OperationHistory.Operation operation) {
+        String branchName = operation.getParameter("branchName");
         File branchFile = join(HEADS_DIR, branchName);
         if (branchFile.exists()) {
-            branchFile.delete();
+            Transaction.delete(branchFile);
             System.out.println("已撤销branch操作");
         } else {
             System.out.println("分支不存在，无法撤销");
-            System.exit(1);
+            exit(1);
         }
     }
     
-    private static void undoRmBranch(Map<String, Object> params, Object data) {
+    private static void undoRmBranch(OperationHistory.Operation operation) {
         // 恢复被删除的分支
-        String branchName = (String) params.get("branchName");
-        if (data instanceof String) {
-            String branchRef = (String) data;
-            writeContents(join(HEADS_DIR, branchName), branchRef);
+        String branchName = operation.getParameter("branchName");
+        String branchRef = operation.getParameter("branchRef");
+        if (branchRef != null) {
+            Transaction.write(join(HEADS_DIR, branchName), branchRef);
             System.out.println("已撤销rm-branch操作");
         } else {
             System.out.println("无法撤销rm-branch操作：状态数据损坏");
-            System.exit(1);
+            exit(1);
         }
     }
     
-    private static void undoCheckout(Map<String, Object> params, Object data) {
-        String branchName = (String) params.get("branchName");
-        String fileName = (String) params.get("fileName");
+    private static void undoCheckout(OperationHistory.Operation operation) {
+        String branchName = operation.getParameter("branchName");
+        String fileName = operation.getParameter("fileName");
         
         // 区分分支checkout和文件checkout
         if (branchName != null) {
             // 分支checkout撤销
-            String previousBranch = (String) params.get("previousBranch");
+            String previousBranch = operation.getParameter("previousBranch");
             if (previousBranch != null) {
-                writeContents(HEAD, "ref: refs/heads/" + previousBranch);
+                Transaction.write(HEAD, "ref: refs/heads/" + previousBranch);
                 System.out.println("已撤销checkout操作");
             } else {
                 System.out.println("无法撤销checkout操作：状态数据损坏");
-                System.exit(1);
+                exit(1);
             }
         } else if (fileName != null) {
-            // 文件checkout撤销
-            if (data instanceof Map) {
-                Map<String, byte[]> fileContents = (Map<String, byte[]>) data;
-                // 恢复文件内容
-                for (Map.Entry<String, byte[]> entry : fileContents.entrySet()) {
-                    String filePath = entry.getKey();
-                    byte[] content = entry.getValue();
-                    writeFileToWorkDir(filePath, content);
-                }
-                System.out.println("已撤销checkout操作");
-            } else {
-                System.out.println("无法撤销checkout操作：状态数据损坏");
-                System.exit(1);
-            }
+            // 文件checkout撤销，恢复文件内容
+            restoreFiles(operation);
+            System.out.println("已撤销checkout操作");
         } else {
             System.out.println("无法撤销checkout操作：状态数据损坏");
-            System.exit(1);
+            exit(1);
         }
     }
     
-    private static void undoReset(Map<String, Object> params, Object data) {
+    private static void undoReset(OperationHistory.Operation operation) {
         // 恢复reset操作前的状态
-        if (data instanceof Map) {
-            Map<String, Object> resetData = (Map<String, Object>) data;
-            Map<String, String> stagingBefore = (Map<String, String>) resetData.get("staging");
-            String branchRef = (String) resetData.get("branchRef");
-            String branchName = (String) resetData.get("branchName");
-            Commit commitBefore = (Commit) resetData.get("commit");
-            
-            // 恢复分支引用
-            writeContents(join(HEADS_DIR, branchName), branchRef);
-            
-            // 恢复暂存区
-            saveStagingArea(stagingBefore);
-            
-            // 恢复工作区
-            updateWorkingDirectory(commitBefore.getFileToBlobID());
-            
-            System.out.println("已撤销reset操作");
-        } else {
+        String branchName = operation.getParameter("branchName");
+        String commitBefore = operation.getParameter("commitBefore");
+        if (branchName == null || commitBefore == null) {
             System.out.println("无法撤销reset操作：状态数据损坏");
-            System.exit(1);
+            exit(1);
         }
+
+        // 恢复分支引用
+        Transaction.write(join(HEADS_DIR, branchName), commitBefore);
+
+        // 恢复暂存区
+        restoreStagingArea(operation);
+
+        // 恢复工作区
+        updateWorkingDirectory(readCommitFromObjects(commitBefore).getFileToBlobID());
+
+        System.out.println("已撤销reset操作");
     }
     
-    private static void undoMerge(Map<String, Object> params, Object data) {
+    private static void undoMerge(OperationHistory.Operation operation) {
         // 撤销merge操作，回退到合并前的状态
-        if (data instanceof Map) {
-            Map<String, Object> mergeData = (Map<String, Object>) data;
-            Commit commitBefore = (Commit) mergeData.get("commit");
-            Map<String, String> stagingBefore = (Map<String, String>) mergeData.get("staging");
-            String mergeType = (String) mergeData.get("type"); // 合并类型："fast-forward", "no-need", "normal"
-            if ("no-need".equals(mergeType)) {
-                // 无需合并的情况，不需要做任何操作
-                System.out.println("已撤销merge操作");
-                return;
-            }
-            
-            // 恢复分支引用到之前的提交
-            String currentBranch = getCurrentBranch();
-            writeContents(join(HEADS_DIR, currentBranch), commitBefore.getId());
-            
-            // 恢复暂存区
-            saveStagingArea(stagingBefore);
-            
-            // 快进合并和普通合并都需要更新工作目录
-            updateWorkingDirectory(commitBefore.getFileToBlobID());
-
+        String mergeType = operation.getParameter("mergeType"); // 合并类型："fast-forward", "no-need", "normal"
+        if ("no-need".equals(mergeType)) {
+            // 无需合并的情况，不需要做任何操作
             System.out.println("已撤销merge操作");
-        } else {
+            return;
+        }
+        String commitBefore = operation.getParameter("commitBefore");
+        if (commitBefore == null) {
             System.out.println("无法撤销merge操作：状态数据损坏");
-            System.exit(1);
+            exit(1);
         }
+
+        // 恢复分支引用到之前的提交
+        String currentBranch = getCurrentBranch();
+        Transaction.write(join(HEADS_DIR, currentBranch), commitBefore);
+
+        // 恢复暂存区
+        restoreStagingArea(operation);
+
+        // 快进合并和普通合并都需要更新工作目录
+        updateWorkingDirectory(readCommitFromObjects(commitBefore).getFileToBlobID());
+
+        System.out.println("已撤销merge操作");
     }
     
     public static void help() {
@@ -1783,6 +1756,18 @@ public class Repository {
         System.out.println("  显示忽略规则列表或检查特定文件是否被忽略");
         System.out.println("  用法: gitlet ignore 或 gitlet ignore <文件名>");
         System.out.println();
+        System.out.println("diff");
+        System.out.println("  以统一格式显示工作区、暂存区与提交之间的差异");
+        System.out.println("  用法: gitlet diff [--cached] 或 gitlet diff <提交> 或 gitlet diff <提交1> <提交2>");
+        System.out.println();
+        System.out.println("gc");
+        System.out.println("  将松散对象打包进packfile");
+        System.out.println("  用法: gitlet gc");
+        System.out.println();
+        System.out.println("daemon");
+        System.out.println("  启动常驻的守护进程，之后可以用 java gitlet.Client <命令> 快速执行命令");
+        System.out.println("  用法: gitlet daemon 或 gitlet daemon stop");
+        System.out.println();
         System.out.println("--help");
         System.out.println("  显示此帮助信息");
         System.out.println("  用法: gitlet --help");
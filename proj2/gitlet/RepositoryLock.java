@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+import static gitlet.Utils.*;
+
+/**
+ * 仓库锁，防止多个 gitlet 进程同时修改同一个仓库
+ * 锁加在 .gitlet/lock 文件上：只读命令持有共享锁，可以同时执行；修改仓库的命令持有独占锁
+ * 进程退出时操作系统会自动释放锁
+ * 开启 gitlet.stats 时在进程退出时输出加锁次数、发生等待的次数和总等待时间
+ */
+class RepositoryLock {
+    enum Mode {
+        /** 共享锁，只读命令使用 */
+        SHARED,
+        /** 独占锁，修改仓库的命令使用 */
+        EXCLUSIVE,
+        /** 没有其他进程时取得独占锁，否则等待共享锁；用于可以顺便写回缓存的只读命令 */
+        PREFER_EXCLUSIVE
+    }
+
+    private static final File LOCK_FILE = join(Repository.GITLET_DIR, "lock");
+
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    private static int acquisitions;
+    private static int contended;
+    private static long waitNanos;
+
+    /**
+     * 按 MODE 锁定仓库，已持有的锁会先被释放；不在仓库中时什么也不做
+     */
+    static void acquire(Mode mode) {
+        if (!Repository.GITLET_DIR.isDirectory()) {
+            return;
+        }
+        release();
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            long start = System.nanoTime();
+            lock = channel.tryLock(0, Long.MAX_VALUE, mode == Mode.SHARED);
+            if (lock == null) {
+                contended++;
+                lock = channel.lock(0, Long.MAX_VALUE, mode != Mode.EXCLUSIVE);
+            }
+            waitNanos += System.nanoTime() - start;
+            acquisitions++;
+        } catch (IOException e) {
+            throw error("无法锁定仓库: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * 持有共享锁时升级为独占锁，只读命令在需要写入仓库（迁移格式、重建索引等）之前调用
+     * 升级时需要先释放共享锁，其他进程可能在这期间修改仓库，调用方应在升级后重新检查是否仍需写入
+     * @return 是否进行了升级
+     */
+    static boolean upgrade() {
+        if (lock == null || !lock.isShared()) {
+            return false;
+        }
+        acquire(Mode.EXCLUSIVE);
+        return true;
+    }
+
+    /**
+     * 当前是否持有独占锁
+     */
+    static boolean isExclusive() {
+        return lock != null && !lock.isShared();
+    }
+
+    static void release() {
+        if (lock == null) {
+            return;
+        }
+        try {
+            lock.release();
+        } catch (IOException e) {
+            // 忽略
+        }
+        lock = null;
+    }
+
+    private static String stats() {
+        return String.format("%d acquisitions, %d contended, waited %.1f ms",
+                acquisitions, contended, waitNanos / 1e6);
+    }
+
+    /**
+     * 如果开启了 gitlet.stats，在进程退出时输出锁的等待统计
+     */
+    static void reportOnExit() {
+        if (!Boolean.getBoolean("gitlet.stats")) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println("[lock] " + stats())));
+    }
+}
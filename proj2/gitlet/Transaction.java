@@ -0,0 +1,319 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static gitlet.Utils.*;
+
+/**
+ * 仓库状态文件（HEAD、分支引用、索引、操作历史）的事务
+ *
+ * 每个命令在一个事务中执行，事务内对状态文件的修改都会先把文件原来的内容追加到回滚日志 .gitlet/txn 中，
+ * 回滚日志落盘之后才修改文件，修改本身通过写临时文件再重命名完成，不会出现写了一半的文件
+ * 被修改的文件在提交时统一 fsync，然后删除回滚日志，删除之后事务才算完成
+ * 命令中途崩溃时回滚日志会保留下来，下一个命令启动时据此把所有文件恢复为事务开始前的内容
+ */
+class Transaction {
+    private static final File LOG_FILE = join(Repository.GITLET_DIR, "txn");
+    private static final int MAGIC = 0x54584e31; // "TXN1"
+
+    private static boolean active;
+    private static boolean hookInstalled;
+    /** 回滚日志，第一次修改文件时才创建 */
+    private static FileChannel log;
+    /** 本事务中修改过的文件，提交时需要 fsync */
+    private static final Set<File> touched = new LinkedHashSet<>();
+    /** 已经完整保存过原内容的文件，之后的修改不需要再记录 */
+    private static final Set<File> preserved = new HashSet<>();
+
+    /**
+     * 开始一个事务，进程通过 System.exit 退出时未提交的事务会被提交
+     */
+    static void begin() {
+        if (!hookInstalled) {
+            hookInstalled = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(Transaction::commit));
+        }
+        active = true;
+    }
+
+    /**
+     * 提交事务：fsync 所有修改过的文件和它们所在的目录，然后删除回滚日志
+     */
+    static void commit() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        if (log != null) {
+            Set<File> dirs = new LinkedHashSet<>();
+            for (File file : touched) {
+                if (file.exists()) {
+                    force(file);
+                }
+                dirs.add(file.getParentFile());
+            }
+            for (File dir : dirs) {
+                force(dir);
+            }
+            closeLog();
+            LOG_FILE.delete();
+            force(Repository.GITLET_DIR);
+        }
+        touched.clear();
+        preserved.clear();
+    }
+
+    /**
+     * 放弃事务，把修改过的文件恢复为事务开始前的内容
+     */
+    static void rollback() {
+        if (!active) {
+            return;
+        }
+        active = false;
+        if (log != null) {
+            closeLog();
+            recover();
+        }
+        touched.clear();
+        preserved.clear();
+    }
+
+    /**
+     * 存在回滚日志时说明上一个命令没有完成，按相反的顺序恢复日志中记录的文件内容
+     * 恢复过程可以重复执行，恢复中途崩溃时下一次启动会重新恢复
+     */
+    static void recover() {
+        if (!LOG_FILE.exists()) {
+            return;
+        }
+        if (RepositoryLock.upgrade() && !LOG_FILE.exists()) {
+            // 等待独占锁期间其他进程已经完成了恢复
+            return;
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new FileInputStream(LOG_FILE))) {
+            while (true) {
+                entries.add(Entry.read(in));
+            }
+        } catch (EOFException e) {
+            // 最后一条记录可能没有写完，它对应的修改还没有开始，直接忽略
+        } catch (IOException e) {
+            throw error("无法读取事务日志: %s", e.getMessage());
+        }
+        Set<File> dirs = new LinkedHashSet<>();
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            entry.restore();
+            if (entry.file.exists()) {
+                force(entry.file);
+            }
+            dirs.add(entry.file.getParentFile());
+        }
+        for (File dir : dirs) {
+            force(dir);
+        }
+        LOG_FILE.delete();
+        force(Repository.GITLET_DIR);
+    }
+
+    /**
+     * 用 CONTENTS 替换文件内容，写入临时文件后重命名
+     * 不在事务中时立即 fsync，在事务中时 fsync 推迟到提交时统一进行
+     */
+    static void write(File file, byte[] contents) {
+        preserve(file, 0);
+        replace(file, contents, !active);
+        if (!active) {
+            force(file.getParentFile());
+        }
+    }
+
+    static void write(File file, String contents) {
+        write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 删除文件
+     */
+    static void delete(File file) {
+        preserve(file, 0);
+        file.delete();
+        if (!active) {
+            force(file.getParentFile());
+        }
+    }
+
+    /**
+     * 把文件截断到 OFFSET 后追加 BYTES，用于只追加的文件；OFFSET 之后原有的内容（如中断时写了一半的记录）会被丢弃
+     * 不在事务中时立即 fsync
+     */
+    static void append(File file, long offset, byte[] bytes) {
+        preserve(file, offset);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(offset);
+            out.seek(offset);
+            out.write(bytes);
+            if (!active) {
+                out.getFD().sync();
+            }
+        } catch (IOException e) {
+            throw error("无法写入文件 %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * 在修改文件 OFFSET 之后的内容（追加、截断）之前调用，保存文件从 OFFSET 开始的原内容
+     * 不在事务中时什么也不做
+     */
+    static void preserve(File file, long offset) {
+        if (!active || preserved.contains(file)) {
+            return;
+        }
+        try {
+            Entry entry = new Entry(file, file.exists(), offset, tail(file, offset));
+            if (log == null) {
+                log = FileChannel.open(LOG_FILE.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            log.write(ByteBuffer.wrap(entry.toBytes()));
+            log.force(false);
+        } catch (IOException e) {
+            throw error("无法写入事务日志: %s", e.getMessage());
+        }
+        if (offset == 0) {
+            preserved.add(file);
+        }
+        touched.add(file);
+    }
+
+    private static byte[] tail(File file, long offset) throws IOException {
+        if (!file.exists()) {
+            return new byte[0];
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) Math.max(0, in.length() - offset)];
+            in.seek(offset);
+            in.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    private static void replace(File file, byte[] contents, boolean sync) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(contents);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                if (sync) {
+                    out.force(false);
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+            throw error("无法写入文件 %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * fsync 文件或目录，不支持对目录 fsync 的系统上忽略错误
+     */
+    private static void force(File file) {
+        StandardOpenOption mode = file.isDirectory() ? StandardOpenOption.READ : StandardOpenOption.WRITE;
+        try (FileChannel channel = FileChannel.open(file.toPath(), mode)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    private static void closeLog() {
+        try {
+            log.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+        log = null;
+    }
+
+    /**
+     * 回滚日志中的一条记录：文件从 OFFSET 开始的原内容，文件原本不存在时 EXISTED 为 false
+     */
+    private static class Entry {
+        private final File file;
+        private final boolean existed;
+        private final long offset;
+        private final byte[] contents;
+
+        Entry(File file, boolean existed, long offset, byte[] contents) {
+            this.file = file;
+            this.existed = existed;
+            this.offset = offset;
+            this.contents = contents;
+        }
+
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(contents.length + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(Repository.GITLET_DIR.toPath().relativize(file.toPath()).toString());
+            out.writeBoolean(existed);
+            out.writeLong(offset);
+            out.writeInt(contents.length);
+            out.write(contents);
+            out.writeInt(MAGIC);
+            return bytes.toByteArray();
+        }
+
+        static Entry read(DataInputStream in) throws IOException {
+            File file = join(Repository.GITLET_DIR, in.readUTF());
+            boolean existed = in.readBoolean();
+            long offset = in.readLong();
+            byte[] contents = new byte[in.readInt()];
+            in.readFully(contents);
+            if (in.readInt() != MAGIC) {
+                // 没有写完整的记录
+                throw new EOFException();
+            }
+            return new Entry(file, existed, offset, contents);
+        }
+
+        void restore() {
+            if (!existed) {
+                file.delete();
+            } else if (offset == 0) {
+                replace(file, contents, false);
+            } else {
+                try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                    out.setLength(offset);
+                    out.seek(offset);
+                    out.write(contents);
+                } catch (IOException e) {
+                    throw error("无法恢复文件 %s: %s", file.getName(), e.getMessage());
+                }
+            }
+        }
+    }
+}
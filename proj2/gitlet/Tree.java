@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * 目录树对象，每个目录一个，记录目录下的文件（文件名 → Blob哈希）和子目录（目录名 → 子树哈希）
+ *
+ * 树按内容寻址，内容没有变化的子目录在不同提交之间共享同一个树对象；
+ * 提交时只需从父提交的树出发，重写从根目录到被修改文件这一条路径上的树
+ * 比较两棵树时，哈希相同的子树可以整体跳过
+ */
+class Tree implements Serializable {
+    // 与旧版本保持一致，使旧仓库中以 Java 序列化保存的树仍可读取
+    private static final long serialVersionUID = -7047800858863472391L;
+
+    private final TreeMap<String, String> files;
+    private final TreeMap<String, String> dirs;
+    private final String id;
+
+    /** 二进制编码的类型字节和版本，见 Codec */
+    static final int CODEC_TYPE = 't';
+    private static final int CODEC_VERSION = 1;
+
+    private static final byte[] TREE_HEADER = "tree\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BLOB_PREFIX = "blob ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TREE_PREFIX = "tree ".getBytes(StandardCharsets.US_ASCII);
+
+    private Tree(TreeMap<String, String> files, TreeMap<String, String> dirs) {
+        this(files, dirs, null);
+    }
+
+    private Tree(TreeMap<String, String> files, TreeMap<String, String> dirs, String id) {
+        this.files = files;
+        this.dirs = dirs;
+        this.id = id != null ? id : generateID();
+    }
+
+    /**
+     * 对文本形式 "tree\n" 加上每个条目的 "blob|tree <哈希> <名称>\n" 求哈希，各部分逐个送入摘要，不拼接整段文本
+     */
+    private String generateID() {
+        MessageDigest md = Utils.sha1Digest();
+        md.update(TREE_HEADER);
+        digestEntries(md, BLOB_PREFIX, files);
+        digestEntries(md, TREE_PREFIX, dirs);
+        return Utils.toHex(md.digest());
+    }
+
+    private static void digestEntries(MessageDigest md, byte[] prefix, Map<String, String> entries) {
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            md.update(prefix);
+            md.update(entry.getValue().getBytes(StandardCharsets.US_ASCII));
+            md.update((byte) ' ');
+            md.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+    }
+
+    String getId() {
+        return id;
+    }
+
+    /**
+     * 编码为对象库中保存的二进制格式：文件名表和对应的 Blob 哈希，然后是子目录名表和对应的树哈希
+     */
+    byte[] encode() {
+        Codec.Output out = new Codec.Output(CODEC_TYPE, CODEC_VERSION);
+        for (TreeMap<String, String> entries : List.of(files, dirs)) {
+            out.writePaths(new ArrayList<>(entries.keySet()));
+            for (String childId : entries.values()) {
+                out.writeId(childId);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 从二进制格式还原树，树的哈希就是对象ID，不需要重新计算
+     * @throws IllegalArgumentException 数据不是树或已损坏
+     */
+    static Tree decode(String id, byte[] data) {
+        Codec.Input in = new Codec.Input(data, CODEC_TYPE, CODEC_VERSION);
+        TreeMap<String, String> files = new TreeMap<>();
+        TreeMap<String, String> dirs = new TreeMap<>();
+        for (TreeMap<String, String> entries : List.of(files, dirs)) {
+            for (String name : in.readPaths()) {
+                entries.put(name, in.readId());
+            }
+        }
+        return new Tree(files, dirs, id);
+    }
+
+    private boolean isEmpty() {
+        return files.isEmpty() && dirs.isEmpty();
+    }
+
+    /**
+     * 读取树对象，ID 为 null 时返回空树
+     */
+    private static Tree read(String id) {
+        if (id == null) {
+            return new Tree(new TreeMap<>(), new TreeMap<>());
+        }
+        return ObjectStore.read(id, Tree.class);
+    }
+
+    /**
+     * 在 ROOTID 对应的树上应用修改，只重写受影响的目录
+     * @param rootId 原来的根目录树，为 null 时从空树开始
+     * @param changes 文件路径 → 新的 Blob 哈希，哈希为 null 表示删除该文件
+     * @return 新的根目录树的哈希
+     */
+    static String update(String rootId, Map<String, String> changes) {
+        Tree root = update(read(rootId), new TreeMap<>(changes), true);
+        // 空仓库的根目录树也需要写入对象库
+        ObjectStore.write(root.id, root);
+        return root.id;
+    }
+
+    /**
+     * 由 文件路径 → Blob哈希 的映射构成的根目录树的哈希，只计算不写入对象库
+     */
+    static String idOf(Map<String, String> files) {
+        return update(read(null), new TreeMap<>(files), false).id;
+    }
+
+    /**
+     * @param write 是否把新的树写入对象库
+     */
+    private static Tree update(Tree base, SortedMap<String, String> changes, boolean write) {
+        if (changes.isEmpty()) {
+            return base;
+        }
+        TreeMap<String, String> files = new TreeMap<>(base.files);
+        TreeMap<String, String> dirs = new TreeMap<>(base.dirs);
+        // 按第一级目录把修改分组，路径已排序，同一目录下的修改是连续的
+        Map<String, SortedMap<String, String>> byDir = new TreeMap<>();
+        for (Map.Entry<String, String> entry : changes.entrySet()) {
+            String path = entry.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (entry.getValue() == null) {
+                    files.remove(path);
+                } else {
+                    files.put(path, entry.getValue());
+                }
+            } else {
+                byDir.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, SortedMap<String, String>> entry : byDir.entrySet()) {
+            Tree child = update(read(dirs.get(entry.getKey())), entry.getValue(), write);
+            if (child.isEmpty()) {
+                dirs.remove(entry.getKey());
+            } else {
+                dirs.put(entry.getKey(), child.id);
+            }
+        }
+        Tree tree = new Tree(files, dirs);
+        if (write && !tree.id.equals(base.id)) {
+            ObjectStore.write(tree.id, tree);
+        }
+        return tree;
+    }
+
+    /**
+     * 展开为按路径排序的 文件路径 → Blob哈希 的映射
+     */
+    static TreeMap<String, String> flatten(String rootId) {
+        TreeMap<String, String> result = new TreeMap<>();
+        flatten(read(rootId), "", result);
+        return result;
+    }
+
+    private static void flatten(Tree tree, String prefix, Map<String, String> result) {
+        for (Map.Entry<String, String> entry : tree.files.entrySet()) {
+            result.put(prefix + entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : tree.dirs.entrySet()) {
+            flatten(read(entry.getValue()), prefix + entry.getKey() + "/", result);
+        }
+    }
+
+    /**
+     * 找出在给定的几棵树之间不完全相同的文件，所有树中哈希相同的子目录整体跳过
+     * 每个目录中各棵树的文件表和子目录表都按名称排序，以 merge-join 的方式同时遍历
+     * @param rootIds 各棵根目录树的哈希，可以为 null（空树）
+     * @return 有差异的文件路径（按路径排序）→ 该文件在各棵树中的 Blob 哈希，不存在时为 null
+     */
+    static SortedMap<String, String[]> changes(String... rootIds) {
+        SortedMap<String, String[]> result = new TreeMap<>();
+        changes(rootIds, "", result);
+        return result;
+    }
+
+    private static void changes(String[] ids, String prefix, SortedMap<String, String[]> result) {
+        if (allEqual(ids)) {
+            return;
+        }
+        List<TreeMap<String, String>> files = new ArrayList<>(ids.length);
+        List<TreeMap<String, String>> dirs = new ArrayList<>(ids.length);
+        for (String id : ids) {
+            Tree tree = read(id);
+            files.add(tree.files);
+            dirs.add(tree.dirs);
+        }
+        MergeJoin.forEach(files, (name, blobIds) -> {
+            if (!allEqual(blobIds)) {
+                result.put(prefix + name, blobIds.clone());
+            }
+        });
+        MergeJoin.forEach(dirs, (name, childIds) -> changes(childIds.clone(), prefix + name + "/", result));
+    }
+
+    private static boolean allEqual(String[] ids) {
+        for (String id : ids) {
+            if (!Objects.equals(id, ids[0])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+
+/**
+ * 遍历工作区，收集所有文件
+ * 每个子目录是一个独立的任务，线程数大于 1 时在 Parallel 的线程池中并行列出目录；
+ * 被忽略的目录在遍历时直接跳过，不会进入其中
+ */
+class WorkingTree {
+    /**
+     * 收集目录下的所有文件，跳过版本控制目录和被忽略的路径
+     * @param dir 开始遍历的目录
+     * @param prefix DIR 相对于工作区根目录的路径，根目录为空字符串
+     * @param ignored 判断路径是否被忽略，第二个参数表示该路径是否为目录
+     * @return 文件路径 → 文件，按路径排序
+     */
+    static SortedMap<String, File> walk(File dir, String prefix, BiPredicate<String, Boolean> ignored) {
+        Map<String, File> files = new ConcurrentHashMap<>();
+        WalkAction root = new WalkAction(dir, prefix, ignored, files);
+        if (Parallel.threads() == 1) {
+            root.compute();
+        } else {
+            Parallel.pool().invoke(root);
+        }
+        return new TreeMap<>(files);
+    }
+
+    private static class WalkAction extends RecursiveAction {
+        // RecursiveAction 实现了 Serializable，任务本身不会被序列化
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final String prefix;
+        private final BiPredicate<String, Boolean> ignored;
+        private final Map<String, File> files;
+
+        WalkAction(File dir, String prefix, BiPredicate<String, Boolean> ignored, Map<String, File> files) {
+            this.dir = dir;
+            this.prefix = prefix;
+            this.ignored = ignored;
+            this.files = files;
+        }
+
+        @Override
+        protected void compute() {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return;
+            }
+            List<WalkAction> subdirs = new ArrayList<>();
+            for (File child : children) {
+                String name = child.getName();
+                // 跳过版本控制目录
+                if (name.equals(".gitlet") || name.equals(".git")) {
+                    continue;
+                }
+                String path = prefix.isEmpty() ? name : prefix + "/" + name;
+                boolean isDirectory = child.isDirectory();
+                if (ignored.test(path, isDirectory)) {
+                    continue;
+                }
+                if (isDirectory) {
+                    subdirs.add(new WalkAction(child, path, ignored, files));
+                } else if (child.isFile()) {
+                    files.put(path, child);
+                }
+            }
+            if (!inForkJoinPool()) {
+                // 串行遍历（不在线程池中）
+                for (WalkAction subdir : subdirs) {
+                    subdir.compute();
+                }
+            } else {
+                invokeAll(subdirs);
+            }
+        }
+    }
+}
@@ -5,6 +5,11 @@ import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 import java.nio.file.*;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.nio.charset.StandardCharsets;
 
@@ -27,23 +32,40 @@ public class GitletTest {
     }
 
     private CommandResult runGitletCommand(String... args) throws IOException, InterruptedException {
+        Process process = startGitletCommand(args);
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int exitCode = process.waitFor();
+
+        return new CommandResult(exitCode, output);
+    }
+
+    // 启动命令但不等待其结束
+    private Process startGitletCommand(String... args) throws IOException {
+        return startJava("gitlet.Main", args);
+    }
+
+    // 通过守护进程的客户端执行命令
+    private CommandResult runClientCommand(String... args) throws IOException, InterruptedException {
+        Process process = startJava("gitlet.Client", args);
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        int exitCode = process.waitFor();
+
+        return new CommandResult(exitCode, output);
+    }
+
+    private Process startJava(String mainClass, String... args) throws IOException {
         List<String> command = new ArrayList<>();
         command.add("java");
         command.add("-Dfile.encoding=UTF-8");
         command.add("-Dgitlet.cwd=" + tempDir.toString());
         command.add("-cp");
         command.add(classPath);
-        command.add("gitlet.Main");
+        command.add(mainClass);
         Collections.addAll(command, args);
 
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.redirectErrorStream(true);
-
-        Process process = pb.start();
-        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
-        int exitCode = process.waitFor();
-
-        return new CommandResult(exitCode, output);
+        return pb.start();
     }
 
     private static class CommandResult {
@@ -216,6 +238,45 @@ public class GitletTest {
         assertTrue(result.output.contains("master"), "应该显示分支信息");
     }
 
+    @Test
+    void testStatusWorkingTree() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile("tracked.txt", "Version 1");
+        createFile("removed.txt", "Keep me");
+        runGitletCommand("add", "tracked.txt");
+        runGitletCommand("add", "removed.txt");
+        runGitletCommand("commit", "Base commit");
+
+        createFile("tracked.txt", "Version 2");
+        Files.delete(tempDir.resolve("removed.txt"));
+        createFile("new.txt", "Untracked");
+
+        String output = runGitletCommand("status").output;
+        assertTrue(output.contains("tracked.txt (modified)"), "应该显示未暂存的修改");
+        assertTrue(output.contains("removed.txt (deleted)"), "应该显示被删除的文件");
+        String untracked = output.substring(output.indexOf("=== Untracked Files ==="));
+        assertTrue(untracked.contains("new.txt"), "应该显示未跟踪的文件");
+    }
+
+    @Test
+    void testAddSkipsIgnoredFiles() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile(".ignore", ".gitlet/\n*.log\n!keep.log\nbuild/\n");
+        Files.createDirectories(tempDir.resolve("build"));
+        createFile("build/out.txt", "Build output");
+        createFile("debug.log", "Debug");
+        createFile("keep.log", "Keep");
+        createFile("main.txt", "Main");
+
+        runGitletCommand("add", ".");
+        String output = runGitletCommand("status").output;
+        String staged = output.substring(output.indexOf("=== Staged Files ==="), output.indexOf("=== Removed Files ==="));
+        assertTrue(staged.contains("main.txt"), "未被忽略的文件应该被添加");
+        assertTrue(staged.contains("keep.log"), "被 ! 规则重新包含的文件应该被添加");
+        assertFalse(staged.contains("debug.log"), "匹配通配符的文件应该被忽略");
+        assertFalse(staged.contains("build/out.txt"), "被忽略目录中的文件应该被忽略");
+    }
+
     @Test
     void testCheckoutFile() throws IOException, InterruptedException {
         runGitletCommand("init");
@@ -250,6 +311,41 @@ public class GitletTest {
         assertEquals("Version 1", readFile("test.txt"), "文件应该恢复为版本1");
     }
 
+    @Test
+    void testCheckoutAndRmDirectory() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        Files.createDirectories(tempDir.resolve("src/sub"));
+        Files.createDirectories(tempDir.resolve("src0"));
+        createFile("src/a.txt", "A");
+        createFile("src/sub/b.txt", "B");
+        // 与目录同名前缀的文件和目录不属于该目录
+        createFile("src.txt", "Sibling");
+        createFile("src0/c.txt", "C");
+        runGitletCommand("add", ".");
+        runGitletCommand("commit", "Add files");
+
+        createFile("src/a.txt", "changed");
+        createFile("src/sub/b.txt", "changed");
+        createFile("src.txt", "changed");
+        createFile("src0/c.txt", "changed");
+        CommandResult result = runGitletCommand("checkout", "--", "src");
+        assertEquals(0, result.exitCode, "检出目录应该成功");
+        assertEquals("A", readFile("src/a.txt"), "目录中的文件应该被恢复");
+        assertEquals("B", readFile("src/sub/b.txt"), "子目录中的文件应该被恢复");
+        assertEquals("changed", readFile("src.txt"), "目录之外的文件不应被检出");
+        assertEquals("changed", readFile("src0/c.txt"), "目录之外的文件不应被检出");
+
+        result = runGitletCommand("rm", "src");
+        assertEquals(0, result.exitCode, "删除被跟踪的目录应该成功");
+        assertFalse(fileExists("src/a.txt"), "目录中的文件应该被删除");
+        assertTrue(fileExists("src.txt"), "目录之外的文件不应被删除");
+        String status = runGitletCommand("status").output;
+        String removed = status.substring(status.indexOf("=== Removed Files ==="),
+                status.indexOf("=== Modifications Not Staged For Commit ==="));
+        assertTrue(removed.contains("src/a.txt") && removed.contains("src/sub/b.txt"), "目录中的文件应标记为删除");
+        assertFalse(removed.contains("src.txt") || removed.contains("src0/c.txt"), "目录之外的文件不应标记为删除");
+    }
+
     @Test
     void testBranchAndCheckout() throws IOException, InterruptedException {
         runGitletCommand("init");
@@ -356,6 +452,430 @@ public class GitletTest {
                 "应该报告合并冲突");
     }
 
+    @Test
+    void testMergeNonOverlappingEdits() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile("lines.txt", "one\ntwo\nthree\nfour\nfive\nsix\n");
+        runGitletCommand("add", "lines.txt");
+        runGitletCommand("commit", "Base commit");
+
+        runGitletCommand("branch", "feature");
+
+        // 在master分支修改第一行
+        createFile("lines.txt", "ONE\ntwo\nthree\nfour\nfive\nsix\n");
+        runGitletCommand("add", "lines.txt");
+        runGitletCommand("commit", "Master commit");
+
+        // 在feature分支修改最后一行
+        runGitletCommand("checkout", "feature");
+        createFile("lines.txt", "one\ntwo\nthree\nfour\nfive\nSIX\n");
+        runGitletCommand("add", "lines.txt");
+        runGitletCommand("commit", "Feature commit");
+
+        runGitletCommand("checkout", "master");
+        CommandResult result = runGitletCommand("merge", "feature");
+
+        // 修改不重叠，应该自动合并
+        assertFalse(result.output.contains("出现合并冲突"), "不重叠的修改不应产生冲突");
+        assertEquals("ONE\ntwo\nthree\nfour\nfive\nSIX\n", readFile("lines.txt"),
+                "双方的修改都应保留");
+    }
+
+    @Test
+    void testDiff() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile("lines.txt", "one\ntwo\nthree\n");
+        runGitletCommand("add", "lines.txt");
+        runGitletCommand("commit", "Base commit");
+
+        createFile("lines.txt", "one\nTWO\nthree\n");
+        CommandResult result = runGitletCommand("diff");
+        assertTrue(result.output.contains("@@ -1,3 +1,3 @@"), "应输出块头");
+        assertTrue(result.output.contains("\n-two\n+TWO\n"), "应输出被修改的行");
+
+        // 暂存后工作区与暂存区相同
+        runGitletCommand("add", "lines.txt");
+        assertFalse(runGitletCommand("diff").output.contains("lines.txt"), "暂存后工作区不应有差异");
+        assertTrue(runGitletCommand("diff", "--cached").output.contains("+TWO"), "应显示暂存的修改");
+    }
+
+    @Test
+    void testGc() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile("test.txt", "Version 1");
+        runGitletCommand("add", "test.txt");
+        runGitletCommand("commit", "Version 1");
+        String firstCommitId = extractCommitId(runGitletCommand("log").output);
+
+        createFile("test.txt", "Version 2");
+        runGitletCommand("add", "test.txt");
+        runGitletCommand("commit", "Version 2");
+
+        CommandResult gcResult = runGitletCommand("gc");
+        assertEquals(0, gcResult.exitCode, "gc 命令应该成功执行");
+        assertTrue(Files.exists(tempDir.resolve(".gitlet/objects/pack/objects.pack")), "应该生成 packfile");
+
+        // 打包后的对象应该能被透明读取
+        CommandResult logResult = runGitletCommand("log");
+        assertTrue(logResult.output.contains("Version 1"), "打包后 log 应该正常显示");
+        runGitletCommand("checkout", firstCommitId, "--", "test.txt");
+        assertEquals("Version 1", readFile("test.txt"), "打包后应该能检出旧版本文件");
+    }
+
+    @Test
+    void testGcDeltaChains() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        // 同一个文件的多个相似版本，gc 时会被写成差异链
+        int versions = 24;
+        Random random = new Random(9);
+        byte[] content = new byte[8192];
+        random.nextBytes(content);
+        List<byte[]> expected = new ArrayList<>();
+        for (int v = 0; v < versions; v++) {
+            content = content.clone();
+            for (int k = 0; k < 4; k++) {
+                content[random.nextInt(content.length)] = (byte) random.nextInt(256);
+            }
+            expected.add(content);
+            Files.write(tempDir.resolve("data.bin"), content);
+            runGitletCommand("add", "data.bin");
+            runGitletCommand("commit", "Version " + v);
+        }
+        List<String> commitIds = new ArrayList<>();
+        for (String line : runGitletCommand("log").output.split("\n")) {
+            if (line.startsWith("commit ")) {
+                commitIds.add(0, line.substring("commit ".length()).trim());
+            }
+        }
+        assertEquals(versions, commitIds.size(), "log 应该列出所有版本");
+
+        assertEquals(0, runGitletCommand("gc").exitCode, "gc 命令应该成功执行");
+        int[] depths = packDepths();
+        int maxDepth = 0;
+        for (int depth : depths) {
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        assertTrue(maxDepth > 0, "相似的版本应该以差异的形式保存");
+        assertTrue(maxDepth <= 10, "差异链深度不应超过 MAX_DELTA_DEPTH");
+
+        for (int v = 0; v < versions; v++) {
+            runGitletCommand("checkout", commitIds.get(v), "--", "data.bin");
+            assertArrayEquals(expected.get(v), Files.readAllBytes(tempDir.resolve("data.bin")),
+                    "gc 后第 " + v + " 个版本应该逐字节一致");
+        }
+    }
+
+    // 辅助方法：读取packfile索引，返回每个对象的差异链深度（完整对象为 0）
+    private int[] packDepths() throws IOException {
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(tempDir.resolve(".gitlet/objects/pack/objects.idx")));
+        ByteBuffer pack = ByteBuffer.wrap(Files.readAllBytes(tempDir.resolve(".gitlet/objects/pack/objects.pack")));
+        // 索引：8 字节文件头、256 项 fan-out 表、(20 字节ID, 8 字节偏移量)；packfile 条目：类型、长度、差异的基准ID
+        int count = index.getInt(8 + 255 * 4);
+        Map<String, Long> offsets = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            int position = 8 + 256 * 4 + i * 28;
+            byte[] id = new byte[20];
+            index.get(position, id);
+            offsets.put(Arrays.toString(id), index.getLong(position + 20));
+        }
+        int[] depths = new int[count];
+        int i = 0;
+        for (long offset : offsets.values()) {
+            int depth = 0;
+            while (pack.get((int) offset) == 1) {
+                byte[] base = new byte[20];
+                pack.get((int) offset + 1 + 8, base);
+                offset = offsets.get(Arrays.toString(base));
+                depth++;
+            }
+            depths[i++] = depth;
+        }
+        return depths;
+    }
+
+    @Test
+    void testFindWithMessageIndex() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        // 超过 64 个未索引的提交时提交信息索引会被重建
+        int commits = 70;
+        for (int i = 0; i < commits; i++) {
+            String message = "Commit " + i;
+            if (i % 10 == 3) {
+                message += " 中文说明";
+            }
+            if (i % 7 == 0) {
+                message += " ab";
+            }
+            createFile("f.txt", "Version " + i);
+            runGitletCommand("add", "f.txt");
+            runGitletCommand("commit", message);
+        }
+        assertTrue(fileExists(".gitlet/message-index"), "提交足够多时应该建立提交信息索引");
+
+        assertEquals(10, countCommits(runGitletCommand("find", "ab").output), "少于 3 个字节的查询应该扫描所有信息");
+        assertEquals(11, countCommits(runGitletCommand("find", "Commit 6").output), "应该找到所有包含查询串的提交");
+        assertEquals(7, countCommits(runGitletCommand("find", "中文").output), "应该能查找中文");
+        assertEquals(1, countCommits(runGitletCommand("find", "Commit 63 中文说明 ab").output),
+                "应该能查找完整的提交信息");
+
+        // 重建之后的提交还没有被索引，查找时直接扫描
+        for (int i = 0; i < 2; i++) {
+            createFile("f.txt", "Late " + i);
+            runGitletCommand("add", "f.txt");
+            runGitletCommand("commit", "Late 中文 " + i);
+        }
+        assertEquals(9, countCommits(runGitletCommand("find", "中文").output), "应该同时找到已索引和未索引的提交");
+        assertEquals(2, countCommits(runGitletCommand("find", "Late").output), "应该找到索引重建之后的提交");
+        CommandResult missing = runGitletCommand("find", "不存在的信息");
+        assertNotEquals(0, missing.exitCode, "没有匹配的提交时应该失败");
+        assertTrue(missing.output.contains("没有找到包含该信息的提交"), "应该提示没有找到提交");
+    }
+
+    // 辅助方法：输出中的提交数量
+    private int countCommits(String output) {
+        int count = 0;
+        for (String line : output.split("\n")) {
+            if (line.startsWith("commit ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void testFormat3Repository() throws Exception {
+        runGitletCommand("init");
+        createFile("a.txt", "Base");
+        runGitletCommand("add", "a.txt");
+        runGitletCommand("commit", "Base commit");
+        String baseId = extractCommitId(runGitletCommand("log").output);
+        runGitletCommand("branch", "feature");
+        createFile("a.txt", "Master");
+        runGitletCommand("add", "a.txt");
+        runGitletCommand("commit", "Master commit");
+        runGitletCommand("checkout", "feature");
+        createFile("b.txt", "Feature");
+        runGitletCommand("add", "b.txt");
+        runGitletCommand("commit", "Feature commit");
+        runGitletCommand("checkout", "master");
+        String logBefore = runGitletCommand("log").output;
+        String globalLogBefore = runGitletCommand("global-log").output;
+
+        // 改写为格式版本 3 的仓库：提交和树是未压缩的 Java 序列化对象，索引是序列化的暂存区映射
+        int rewritten = writeSerializedObjects();
+        assertTrue(rewritten >= 5, "应该改写所有提交和树，实际 " + rewritten);
+        Files.write(tempDir.resolve(".gitlet/format"), "3".getBytes(StandardCharsets.UTF_8));
+        try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(tempDir.resolve(".gitlet/index")))) {
+            out.writeObject(new HashMap<String, String>());
+        }
+
+        assertEquals(logBefore, runGitletCommand("log").output, "转换后提交ID和 log 输出应该不变");
+        assertEquals("4", readFile(".gitlet/format").trim(), "对象应该被转换为当前格式");
+        assertEquals(globalLogBefore, runGitletCommand("global-log").output, "转换后 global-log 输出应该不变");
+
+        runGitletCommand("checkout", baseId, "--", "a.txt");
+        assertEquals("Base", readFile("a.txt"), "应该能检出转换前的旧版本文件");
+        runGitletCommand("checkout", "--", "a.txt");
+        CommandResult merge = runGitletCommand("merge", "feature");
+        assertEquals(0, merge.exitCode, "merge 命令应该成功执行");
+        assertEquals("Master", readFile("a.txt"), "合并后应该保留当前分支的修改");
+        assertEquals("Feature", readFile("b.txt"), "合并后应该带入另一个分支的文件");
+    }
+
+    // 辅助方法：通过编译出的类读取对象库中的提交和树，以 Java 序列化的形式写回对应的松散对象文件
+    private int writeSerializedObjects() throws Exception {
+        String previousCwd = System.getProperty("gitlet.cwd");
+        System.setProperty("gitlet.cwd", tempDir.toString());
+        int rewritten = 0;
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{new File(classPath).toURI().toURL()}, null)) {
+            Class<?> store = loader.loadClass("gitlet.ObjectStore");
+            Method allIds = store.getDeclaredMethod("allIds");
+            Method read = store.getDeclaredMethod("read", String.class, Class.class);
+            allIds.setAccessible(true);
+            read.setAccessible(true);
+            Class<?>[] types = {loader.loadClass("gitlet.Commit"), loader.loadClass("gitlet.Tree")};
+            for (Object id : (List<?>) allIds.invoke(null)) {
+                for (Class<?> type : types) {
+                    Object object;
+                    try {
+                        object = read.invoke(null, id, type);
+                    } catch (InvocationTargetException e) {
+                        // 不是这种类型的对象
+                        continue;
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                        out.writeObject(object);
+                    }
+                    String hex = id.toString();
+                    Path loose = tempDir.resolve(".gitlet/objects").resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+                    assertTrue(Files.exists(loose), "对象应该是松散对象");
+                    Files.write(loose, bytes.toByteArray());
+                    rewritten++;
+                }
+            }
+        } finally {
+            if (previousCwd == null) {
+                System.clearProperty("gitlet.cwd");
+            } else {
+                System.setProperty("gitlet.cwd", previousCwd);
+            }
+        }
+        return rewritten;
+    }
+
+    @Test
+    void testConcurrentCommands() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        int n = 8;
+        for (int i = 0; i < n; i++) {
+            createFile("file" + i + ".txt", "Content " + i);
+        }
+
+        // 同时执行多个 add，每个进程都要读取并写回暂存区，不能丢失其他进程的修改
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            processes.add(startGitletCommand("add", "file" + i + ".txt"));
+        }
+        for (Process process : processes) {
+            process.getInputStream().readAllBytes();
+            assertEquals(0, process.waitFor(), "并发执行的 add 应该成功");
+        }
+
+        String output = runGitletCommand("status").output;
+        String staged = output.substring(output.indexOf("=== Staged Files ==="), output.indexOf("=== Removed Files ==="));
+        for (int i = 0; i < n; i++) {
+            assertTrue(staged.contains("file" + i + ".txt"), "并发添加的文件都应该在暂存区中");
+        }
+    }
+
+    @Test
+    void testRecoverInterruptedTransaction() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile("test.txt", "Version 1");
+        runGitletCommand("add", "test.txt");
+        runGitletCommand("commit", "Version 1");
+        createFile("staged.txt", "Staged");
+        runGitletCommand("add", "staged.txt");
+
+        Path gitlet = tempDir.resolve(".gitlet");
+        byte[] head = Files.readAllBytes(gitlet.resolve("HEAD"));
+        byte[] master = Files.readAllBytes(gitlet.resolve("refs/heads/master"));
+        byte[] index = Files.readAllBytes(gitlet.resolve("index"));
+
+        // 模拟一个在保存原内容之后、提交之前中断的命令：回滚日志已经写入，状态文件已被修改
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        journal.write(journalEntry("HEAD", true, head));
+        journal.write(journalEntry("refs/heads/master", true, master));
+        journal.write(journalEntry("refs/heads/other", false, new byte[0]));
+        journal.write(journalEntry("index", true, index));
+        Files.write(gitlet.resolve("txn"), journal.toByteArray());
+        Files.write(gitlet.resolve("HEAD"), "ref: refs/heads/other\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(gitlet.resolve("refs/heads/other"), master);
+        Files.write(gitlet.resolve("refs/heads/master"), "0".repeat(40).getBytes(StandardCharsets.UTF_8));
+        Files.write(gitlet.resolve("index"), new byte[0]);
+
+        // log 不修改状态文件，恢复后的文件内容应该与中断前完全相同
+        CommandResult log = runGitletCommand("log");
+        assertEquals(0, log.exitCode, "存在回滚日志时下一个命令应该正常执行");
+        assertTrue(log.output.contains("Version 1"), "恢复后 log 应该正常显示");
+        assertFalse(Files.exists(gitlet.resolve("txn")), "恢复后应该删除回滚日志");
+        assertArrayEquals(head, Files.readAllBytes(gitlet.resolve("HEAD")), "HEAD 应该被恢复");
+        assertArrayEquals(master, Files.readAllBytes(gitlet.resolve("refs/heads/master")), "分支引用应该被恢复");
+        assertFalse(Files.exists(gitlet.resolve("refs/heads/other")), "事务中新建的分支应该被删除");
+        assertArrayEquals(index, Files.readAllBytes(gitlet.resolve("index")), "索引应该被恢复");
+        assertTrue(stagedFilesSection(runGitletCommand("status").output).contains("staged.txt"),
+                "恢复后暂存区应该保持原样");
+    }
+
+    @Test
+    void testRecoverIgnoresTornJournalEntry() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        createFile("test.txt", "Version 1");
+        runGitletCommand("add", "test.txt");
+        runGitletCommand("commit", "Version 1");
+        runGitletCommand("branch", "feature");
+
+        Path gitlet = tempDir.resolve(".gitlet");
+        byte[] master = Files.readAllBytes(gitlet.resolve("refs/heads/master"));
+        byte[] feature = Files.readAllBytes(gitlet.resolve("refs/heads/feature"));
+
+        // 最后一条记录没有写完：写入时中断，对应的修改还没有开始，恢复时应该忽略
+        byte[] torn = journalEntry("refs/heads/feature", false, new byte[0]);
+        ByteArrayOutputStream journal = new ByteArrayOutputStream();
+        journal.write(journalEntry("refs/heads/master", true, master));
+        journal.write(torn, 0, torn.length - 2);
+        Files.write(gitlet.resolve("txn"), journal.toByteArray());
+        Files.write(gitlet.resolve("refs/heads/master"), "0".repeat(40).getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(0, runGitletCommand("status").exitCode, "存在回滚日志时下一个命令应该正常执行");
+        assertFalse(Files.exists(gitlet.resolve("txn")), "恢复后应该删除回滚日志");
+        assertArrayEquals(master, Files.readAllBytes(gitlet.resolve("refs/heads/master")), "完整的记录应该被恢复");
+        assertArrayEquals(feature, Files.readAllBytes(gitlet.resolve("refs/heads/feature")),
+                "不完整的记录不应该被应用");
+    }
+
+    // 辅助方法：回滚日志中的一条记录（.gitlet 下的相对路径、文件原本是否存在、偏移量、原内容、MAGIC）
+    private byte[] journalEntry(String path, boolean existed, byte[] contents) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(path);
+        out.writeBoolean(existed);
+        out.writeLong(0);
+        out.writeInt(contents.length);
+        out.write(contents);
+        out.writeInt(0x54584e31);
+        return bytes.toByteArray();
+    }
+
+    // 辅助方法：status 输出中的暂存文件部分
+    private String stagedFilesSection(String statusOutput) {
+        return statusOutput.substring(statusOutput.indexOf("=== Staged Files ==="),
+                statusOutput.indexOf("=== Removed Files ==="));
+    }
+
+    @Test
+    void testDaemon() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        Process daemon = startGitletCommand("daemon");
+        try {
+            // 等待守护进程开始监听
+            Path socket = tempDir.resolve(".gitlet/daemon.sock");
+            for (int i = 0; i < 100 && !Files.exists(socket); i++) {
+                Thread.sleep(50);
+            }
+            assertTrue(Files.exists(socket), "守护进程应该创建套接字文件");
+
+            createFile("test.txt", "Hello");
+            assertEquals(0, runClientCommand("add", "test.txt").exitCode, "通过守护进程执行的 add 应该成功");
+            assertEquals(0, runClientCommand("commit", "Daemon commit").exitCode, "通过守护进程执行的 commit 应该成功");
+            assertTrue(runGitletCommand("log").output.contains("Daemon commit"), "守护进程中的提交应该写入仓库");
+
+            // 其他进程修改仓库后，守护进程应该看到最新的状态
+            runGitletCommand("branch", "feature");
+            assertTrue(runClientCommand("status").output.contains("feature"), "守护进程应该看到其他进程创建的分支");
+
+            // 二进制检测只看开头，diff 的输出中可能含有 \0
+            String text = "line\n".repeat(2000);
+            createFile("nul.txt", text + "a\0b\n");
+            runClientCommand("add", "nul.txt");
+            runClientCommand("commit", "Add nul");
+            createFile("nul.txt", text + "c\0d\n");
+            CommandResult diff = runClientCommand("diff");
+            assertEquals(0, diff.exitCode, "输出含有 \\0 的命令应该成功");
+            assertTrue(diff.output.contains("+c\0d"), "客户端应该输出 \\0 之后的内容");
+
+            CommandResult failed = runClientCommand("rm", "missing.txt");
+            assertNotEquals(0, failed.exitCode, "失败的命令应该返回非零退出码");
+            assertTrue(runClientCommand("log").output.contains("Daemon commit"), "命令失败后守护进程应该继续运行");
+        } finally {
+            runGitletCommand("daemon", "stop");
+            daemon.getInputStream().readAllBytes();
+            daemon.waitFor();
+        }
+        assertFalse(Files.exists(tempDir.resolve(".gitlet/daemon.sock")), "守护进程停止后应该删除套接字文件");
+    }
+
     // 辅助方法：从log输出中提取第一个（最旧的）提交ID
     private String extractFirstCommitId(String logOutput) {
         // log是倒序输出的，所以第一个（最旧的）提交在最后面
@@ -0,0 +1,133 @@
+package testing.src;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Formatter;
+import java.util.Random;
+
+/**
+ * SHA-1 哈希的微基准测试，对比 Utils.sha1 和提交ID的旧实现（每次新建 MessageDigest、用 Formatter 逐字节格式化、
+ * 先拼接字段再求哈希）与当前实现（线程内复用摘要、查表转十六进制、逐个字段送入摘要）
+ * 每项先预热，再测量 ROUNDS 轮，输出每次操作的中位耗时（纳秒）；两种实现的结果不一致时以非零状态退出
+ *
+ * 用法：java -cp out testing.src.HashBenchmark [类路径，默认 out] [每轮的操作次数，默认 200000]
+ * 类路径需要包含已编译的 gitlet 包
+ */
+public class HashBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    /** 防止被测代码的结果被优化掉 */
+    private static int sink;
+
+    private interface Operation {
+        String run(int i) throws Throwable;
+    }
+
+    public static void main(String[] args) throws Throwable {
+        String classPath = args.length > 0 ? args[0] : "out";
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        ClassLoader loader = new URLClassLoader(new URL[]{new File(classPath).toURI().toURL()}, null);
+        Method sha1Method = loader.loadClass("gitlet.Utils").getDeclaredMethod("sha1", Object[].class);
+        sha1Method.setAccessible(true);
+        MethodHandle sha1 = MethodHandles.lookup().unreflect(sha1Method);
+        Class<?> commitClass = loader.loadClass("gitlet.Commit");
+        Constructor<?> commitConstructor = commitClass.getConstructor(
+                String.class, String.class, Date.class, String.class, String.class);
+        MethodHandle newCommit = MethodHandles.lookup().unreflectConstructor(commitConstructor);
+        MethodHandle commitId = MethodHandles.lookup().unreflect(commitClass.getMethod("getId"));
+
+        Random random = new Random(61);
+        String shortValue = legacySha1("short");
+        byte[] content = new byte[4096];
+        random.nextBytes(content);
+        String parent = legacySha1("parent");
+        String tree = legacySha1("tree");
+        Date timestamp = new Date(1700000000000L);
+        String message = "commit message for the hash benchmark";
+
+        System.out.printf("每轮 %d 次操作，%d 轮%n", operations, ROUNDS);
+        System.out.printf("%-16s %12s %12s%n", "操作", "旧实现(ns)", "新实现(ns)");
+        compare("sha1 40字节", operations,
+                i -> legacySha1(shortValue),
+                i -> (String) sha1.invoke(new Object[]{shortValue}));
+        compare("sha1 4KB", operations / 10,
+                i -> legacySha1(content),
+                i -> (String) sha1.invoke(new Object[]{content}));
+        compare("提交ID", operations,
+                i -> legacySha1(parent + null + timestamp.toString() + message + tree),
+                i -> (String) commitId.invoke(newCommit.invoke(parent, null, timestamp, message, tree)));
+    }
+
+    /**
+     * 分别测量两种实现并输出结果，先检查两者的输出相同
+     */
+    private static void compare(String name, int operations, Operation legacy, Operation current)
+            throws Throwable {
+        String expected = legacy.run(0);
+        String actual = current.run(0);
+        if (!expected.equals(actual)) {
+            System.out.printf("%s: 结果不一致 %s != %s%n", name, expected, actual);
+            System.exit(1);
+        }
+        System.out.printf("%-16s %12.1f %12.1f%n", name,
+                measure(operations, legacy), measure(operations, current));
+    }
+
+    /**
+     * 每次操作的中位耗时（纳秒）
+     */
+    private static double measure(int operations, Operation operation) throws Throwable {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            runRound(operations, operation);
+        }
+        long[] times = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            times[round] = runRound(operations, operation);
+        }
+        Arrays.sort(times);
+        return (double) times[ROUNDS / 2] / operations;
+    }
+
+    private static long runRound(int operations, Operation operation) throws Throwable {
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            sink += operation.run(i).hashCode();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 旧版本 Utils.sha1 的实现
+     */
+    private static String legacySha1(Object... vals) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            for (Object val : vals) {
+                if (val instanceof byte[]) {
+                    md.update((byte[]) val);
+                } else {
+                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            Formatter result = new Formatter();
+            for (byte b : md.digest()) {
+                result.format("%02x", b);
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package testing.src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 命令行启动时间基准测试
+ * 在临时仓库中先执行 HISTORY 次 branch 命令积累操作历史，再分别多次启动只读或参数错误的命令，
+ * 输出每个命令的最短、中位和最长耗时（毫秒）；无参数的 gitlet.Main 作为 JVM 启动本身的参照
+ *
+ * 用法：java -cp out testing.src.StartupBenchmark [类路径，默认 out] [历史条数，默认 200] [每个命令的运行次数，默认 15]
+ * 类路径需要包含已编译的 gitlet 包
+ */
+public class StartupBenchmark {
+    private static final int WARMUP_RUNS = 2;
+
+    private static final String[][] COMMANDS = {
+            {},
+            {"commit"},
+            {"ignore"},
+            {"status"},
+            {"log"},
+            {"find", "base"},
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String classPath = args.length > 0 ? args[0] : "out";
+        int history = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+
+        Path repo = Files.createTempDirectory("gitlet-startup");
+        try {
+            run(classPath, repo, history, "init");
+            Files.write(repo.resolve("a.txt"), "a\n".getBytes(StandardCharsets.UTF_8));
+            run(classPath, repo, history, "add", "a.txt");
+            run(classPath, repo, history, "commit", "base");
+            for (int i = 0; i < history; i++) {
+                run(classPath, repo, history, "branch", "b" + i);
+            }
+            System.out.printf("历史条数: %d, 每个命令运行 %d 次%n", history, runs);
+            System.out.printf("%-16s %8s %8s %8s%n", "命令", "最短", "中位", "最长");
+            for (String[] command : COMMANDS) {
+                for (int i = 0; i < WARMUP_RUNS; i++) {
+                    run(classPath, repo, history, command);
+                }
+                long[] times = new long[runs];
+                for (int i = 0; i < runs; i++) {
+                    long start = System.nanoTime();
+                    run(classPath, repo, history, command);
+                    times[i] = System.nanoTime() - start;
+                }
+                Arrays.sort(times);
+                String name = command.length == 0 ? "(无参数)" : String.join(" ", command);
+                System.out.printf("%-16s %8.1f %8.1f %8.1f%n", name,
+                        times[0] / 1e6, times[runs / 2] / 1e6, times[runs - 1] / 1e6);
+            }
+        } finally {
+            delete(repo.toFile());
+        }
+    }
+
+    /**
+     * 启动一次 gitlet.Main 并等待其结束，输出被丢弃
+     */
+    private static void run(String classPath, Path repo, int history, String... args)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add("java");
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-Dgitlet.cwd=" + repo);
+        // 保留全部历史，避免日志被压缩
+        command.add("-Dgitlet.undo.depth=" + Math.max(history, 1));
+        command.add("-cp");
+        command.add(classPath);
+        command.add("gitlet.Main");
+        Collections.addAll(command, args);
+
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.redirectErrorStream(true);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.start().waitFor();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -5,6 +5,10 @@ import org.junit.jupiter.api.io.TempDir;
 import static org.junit.jupiter.api.Assertions.*;
 import java.nio.file.*;
 import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.*;
 import java.nio.charset.StandardCharsets;
 
@@ -27,9 +31,16 @@ public class UndoTest {
     }
 
     private CommandResult runGitletCommand(String... args) throws IOException, InterruptedException {
+        return runGitletCommand(Collections.emptyList(), args);
+    }
+
+    // 带 JVM 参数（如 -Dgitlet.undo.depth）执行命令
+    private CommandResult runGitletCommand(List<String> options, String... args)
+            throws IOException, InterruptedException {
         List<String> command = new ArrayList<>();
         command.add("java");
         command.add("-Dfile.encoding=UTF-8");
+        command.addAll(options);
         command.add("-Dgitlet.cwd=" + tempDir.toString());
         command.add("-cp");
         command.add(classPath);
@@ -102,7 +113,7 @@ public class UndoTest {
 
         // 检查状态，文件应该不再暂存
         CommandResult statusAfter = runGitletCommand("status");
-        assertFalse(statusAfter.output.contains("test.txt"), "撤销后文件不应该在暂存区中");
+        assertFalse(stagedFiles(statusAfter.output).contains("test.txt"), "撤销后文件不应该在暂存区中");
     }
 
     @Test
@@ -130,9 +141,10 @@ public class UndoTest {
 
         // 检查状态，文件应该不再暂存
         CommandResult statusAfter = runGitletCommand("status");
-        assertFalse(statusAfter.output.contains("test1.txt"), "撤销后test1.txt不应该在暂存区中");
-        assertFalse(statusAfter.output.contains("test2.txt"), "撤销后test2.txt不应该在暂存区中");
-        assertFalse(statusAfter.output.contains("subdir/test3.txt"), "撤销后subdir/test3.txt不应该在暂存区中");
+        String staged = stagedFiles(statusAfter.output);
+        assertFalse(staged.contains("test1.txt"), "撤销后test1.txt不应该在暂存区中");
+        assertFalse(staged.contains("test2.txt"), "撤销后test2.txt不应该在暂存区中");
+        assertFalse(staged.contains("subdir/test3.txt"), "撤销后subdir/test3.txt不应该在暂存区中");
     }
 
     @Test
@@ -559,6 +571,117 @@ public class UndoTest {
         assertEquals("Master content", readFile("test.txt"), "撤销后文件应该恢复到master分支的内容");
     }
 
+    @Test
+    void testUndoJournalCompaction() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        List<String> depth = Collections.singletonList("-Dgitlet.undo.depth=2");
+        Path journal = tempDir.resolve(".gitlet/undo_journal");
+        Files.deleteIfExists(journal);
+
+        // 保留 2 条时，记录数超过 4 条才压缩
+        for (int i = 0; i < 4; i++) {
+            runGitletCommand(depth, "branch", "b" + i);
+        }
+        long beforeCompaction = Files.size(journal);
+        runGitletCommand(depth, "branch", "b4");
+        assertTrue(Files.size(journal) < beforeCompaction, "记录数超过保留条数的两倍时日志应该被压缩");
+
+        // 压缩后最新的记录仍然可以撤销
+        CommandResult undoResult = runGitletCommand("undo");
+        assertTrue(undoResult.output.contains("已撤销branch操作"), "压缩后应该能撤销最新的操作");
+        assertFalse(fileExists(".gitlet/refs/heads/b4"), "撤销后分支 b4 应该被删除");
+        assertTrue(fileExists(".gitlet/refs/heads/b3"), "更早的分支不应受影响");
+    }
+
+    @Test
+    void testUndoDepthLimit() throws IOException, InterruptedException {
+        runGitletCommand("init");
+        List<String> depth = Collections.singletonList("-Dgitlet.undo.depth=3");
+        int branches = 10;
+        for (int i = 0; i < branches; i++) {
+            runGitletCommand(depth, "branch", "b" + i);
+        }
+
+        // 至少保留最近的 3 条，最多保留 6 条
+        int undone = 0;
+        while (runGitletCommand("undo").exitCode == 0) {
+            undone++;
+            assertFalse(fileExists(".gitlet/refs/heads/b" + (branches - undone)), "应该按从新到旧的顺序撤销");
+        }
+        assertTrue(undone >= 3, "至少应该保留 gitlet.undo.depth 条记录，实际 " + undone);
+        assertTrue(undone <= 6, "保留的记录不应超过 gitlet.undo.depth 的两倍，实际 " + undone);
+        assertTrue(fileExists(".gitlet/refs/heads/b0"), "超出保留范围的操作不能被撤销");
+    }
+
+    @Test
+    void testUndoMigratesLegacyHistory() throws Exception {
+        runGitletCommand("init");
+        createFile("test.txt", "Hello World");
+        runGitletCommand("add", "test.txt");
+        runGitletCommand("branch", "feature");
+
+        // 换成旧版本的 operation_history 文件：Java 序列化的操作栈，最新的记录在最前面
+        Files.delete(tempDir.resolve(".gitlet/undo_journal"));
+        Map<String, Object> branchParameters = new HashMap<>();
+        branchParameters.put("branchName", "feature");
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{new File(classPath).toURI().toURL()})) {
+            Deque<Object> history = new ArrayDeque<>();
+            history.push(legacyRecord(loader, "ADD", new HashMap<>(), new HashMap<String, String>()));
+            history.push(legacyRecord(loader, "BRANCH", branchParameters, null));
+            Object legacy = newInstance(loader.loadClass("gitlet.OperationHistory"));
+            setField(legacy, "history", history);
+            try (ObjectOutputStream out = new ObjectOutputStream(
+                    Files.newOutputStream(tempDir.resolve(".gitlet/operation_history")))) {
+                out.writeObject(legacy);
+            }
+        }
+
+        CommandResult undoBranch = runGitletCommand("undo");
+        assertTrue(undoBranch.output.contains("已撤销branch操作"), "应该能撤销旧历史中最新的操作");
+        assertFalse(fileExists(".gitlet/refs/heads/feature"), "撤销后分支应该被删除");
+        assertFalse(fileExists(".gitlet/operation_history"), "旧的历史文件应该在迁移后删除");
+
+        CommandResult undoAdd = runGitletCommand("undo");
+        assertTrue(undoAdd.output.contains("已撤销add操作"), "应该能撤销旧历史中更早的操作");
+        assertFalse(stagedFiles(runGitletCommand("status").output).contains("test.txt"), "撤销后文件不应该在暂存区中");
+        assertNotEquals(0, runGitletCommand("undo").exitCode, "旧历史中的操作都撤销后不应再有可撤销的操作");
+    }
+
+    // 辅助方法：构造旧版本的操作记录
+    private Object legacyRecord(ClassLoader loader, String type, Map<String, Object> parameters, Object data)
+            throws Exception {
+        Object record = newInstance(loader.loadClass("gitlet.OperationHistory$OperationRecord"));
+        Class<?> typeClass = loader.loadClass("gitlet.OperationHistory$OperationType");
+        for (Object constant : typeClass.getEnumConstants()) {
+            if (constant.toString().equals(type)) {
+                setField(record, "type", constant);
+            }
+        }
+        setField(record, "parameters", parameters);
+        setField(record, "data", data);
+        setField(record, "timestamp", new Date());
+        return record;
+    }
+
+    private Object newInstance(Class<?> type) throws Exception {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    private void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    // 辅助方法：status 输出中的暂存文件部分（未跟踪的文件会出现在之后的部分中）
+    private String stagedFiles(String statusOutput) {
+        int start = statusOutput.indexOf("=== Staged Files ===");
+        int end = statusOutput.indexOf("=== Removed Files ===");
+        return statusOutput.substring(start, end);
+    }
+
     // 辅助方法：获取第一个提交ID
     private String getFirstCommitId() throws IOException, InterruptedException {
         CommandResult logResult = runGitletCommand("log");